@@ -5,11 +5,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
- * Représente un chargeur d'astérismes
+ * Représente un chargeur d'astérismes, dont les étoiles sont retrouvées par leur numéro Hipparcos
  *
  * @author Cyril Golaz (301379)
  * @author Paul McIntyre (302264)
@@ -28,17 +26,13 @@ public enum AsterismLoader implements StarCatalogue.Loader {
 
             String s;
             while ((s = bufferedReader.readLine()) != null) {
-                List<Star> stars = new ArrayList<>();
                 String[] strings = s.split(",");
 
+                int[] hipparcosIds = new int[strings.length];
                 for (int i = 0; i < strings.length; i++) {
-                    for (Star star : builder.stars()) {
-                        if (star.hipparcosId() == Integer.parseInt(strings[i])) {
-                            stars.add(star);
-                        }
-                    }
+                    hipparcosIds[i] = Integer.parseInt(strings[i]);
                 }
-                builder.addAsterism(new Asterism(stars));
+                builder.addAsterism(hipparcosIds);
             }
         }
 
@@ -0,0 +1,292 @@
+package ch.epfl.rigel.astronomy;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Représente un chargeur de catalogue pré-compilé, au format binaire.
+ *
+ * Le fichier contient, dans l'ordre : un en-tête, les étoiles sous forme d'enregistrements de taille fixe,
+ * les astérismes sous forme de tableaux d'index, puis la table des noms (distincts) des étoiles.
+ * Un tel fichier s'obtient à partir des fichiers HYG et d'astérismes au moyen de la méthode main ;
+ * son en-tête mémorise l'empreinte de ces fichiers, qui permet de savoir s'il est à jour.
+ *
+ * @author Cyril Golaz (301379)
+ * @author Paul McIntyre (302264)
+ */
+
+public enum BinaryCatalogueLoader implements StarCatalogue.Loader {
+
+    INSTANCE;
+
+    private final static int MAGIC = 0x52474C43; // "RGLC"
+    private final static int VERSION = 1;
+
+    private final static int HEADER_SIZE = 8 * Integer.BYTES;
+    private final static int FINGERPRINT_POSITION = 7 * Integer.BYTES;
+    // hip, ra, dec, magnitude, colorIndex, distance, rv, index du nom
+    private final static int STAR_RECORD_SIZE = 2 * Integer.BYTES + 2 * Double.BYTES + 4 * Float.BYTES;
+
+    @Override
+    public void load(InputStream inputStream, StarCatalogue.Builder builder) throws IOException {
+        try (inputStream) {
+            load(ByteBuffer.wrap(inputStream.readAllBytes()), builder);
+        }
+    }
+
+    @Override
+    public void load(Path path, StarCatalogue.Builder builder) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            load(buffer, builder);
+        }
+    }
+
+    private void load(ByteBuffer buffer, StarCatalogue.Builder builder) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("pas un catalogue binaire");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("version de catalogue binaire non supportée : " + buffer.getInt(4));
+        }
+        int starCount = buffer.getInt(8);
+        int asterismCount = buffer.getInt(12);
+        int asterismIndexCount = buffer.getInt(16);
+        int nameCount = buffer.getInt(20);
+        int nameBytesLength = buffer.getInt(24);
+        if (starCount < 0 || asterismCount < 0 || asterismIndexCount < 0 || nameCount < 0 || nameBytesLength < 0) {
+            throw new IOException("catalogue binaire corrompu : taille négative");
+        }
+
+        // Les positions sont calculées sur 64 bits, afin qu'une taille démesurée ne puisse pas déborder
+        long starsPosition = HEADER_SIZE;
+        long asterismOffsetsPosition = starsPosition + (long) starCount * STAR_RECORD_SIZE;
+        long asterismIndicesPosition = asterismOffsetsPosition + (asterismCount + 1L) * Integer.BYTES;
+        long nameOffsetsPosition = asterismIndicesPosition + (long) asterismIndexCount * Integer.BYTES;
+        long namesPosition = nameOffsetsPosition + (nameCount + 1L) * Integer.BYTES;
+        if (buffer.limit() < namesPosition + nameBytesLength) {
+            throw new IOException("catalogue binaire tronqué");
+        }
+
+        String[] names = new String[nameCount];
+        byte[] nameBytes = new byte[nameBytesLength];
+        buffer.get((int) namesPosition, nameBytes);
+        int[] nameOffsets = checkedOffsets(buffer, (int) nameOffsetsPosition, nameCount, nameBytesLength, "noms");
+        for (int i = 0; i < nameCount; i++) {
+            names[i] = new String(nameBytes, nameOffsets[i], nameOffsets[i + 1] - nameOffsets[i], StandardCharsets.UTF_8);
+        }
+
+        int[] asterismOffsets = checkedOffsets(buffer, (int) asterismOffsetsPosition, asterismCount, asterismIndexCount,
+                "astérismes");
+        for (int j = 0; j < asterismIndexCount; j++) {
+            int starIndex = buffer.getInt((int) asterismIndicesPosition + j * Integer.BYTES);
+            if (starIndex < 0 || starIndex >= starCount) {
+                throw new IOException("catalogue binaire corrompu : index d'étoile d'astérisme invalide " + starIndex);
+            }
+        }
+
+        // Le bâtisseur vérifie encore les valeurs lues, et signale une valeur invalide (p.ex. une ascension droite
+        // hors bornes ou un astérisme vide) par une IllegalArgumentException, que l'on traduit ici
+        try {
+            int firstStar = builder.stars().size();
+            for (int i = 0; i < starCount; i++) {
+                int record = (int) starsPosition + i * STAR_RECORD_SIZE;
+                int nameIndex = buffer.getInt(record + 36);
+                if (nameIndex < 0 || nameIndex >= nameCount) {
+                    throw new IOException("catalogue binaire corrompu : index de nom invalide " + nameIndex);
+                }
+                builder.addStar(buffer.getInt(record),
+                        names[nameIndex],
+                        buffer.getDouble(record + 4),
+                        buffer.getDouble(record + 12),
+                        buffer.getFloat(record + 20),
+                        buffer.getFloat(record + 24),
+                        buffer.getFloat(record + 28),
+                        buffer.getFloat(record + 32));
+            }
+
+            for (int i = 0; i < asterismCount; i++) {
+                int from = asterismOffsets[i], to = asterismOffsets[i + 1];
+                List<Star> stars = new ArrayList<>(to - from);
+                for (int j = from; j < to; j++) {
+                    int starIndex = buffer.getInt((int) asterismIndicesPosition + j * Integer.BYTES);
+                    stars.add(builder.stars().get(firstStar + starIndex));
+                }
+                builder.addAsterism(new Asterism(stars));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("catalogue binaire corrompu : étoile ou astérisme invalide", e);
+        }
+    }
+
+    // Lit les count + 1 bornes commençant à position, qui doivent croître de 0 à end
+    private static int[] checkedOffsets(ByteBuffer buffer, int position, int count, int end, String table)
+            throws IOException {
+        int[] offsets = new int[count + 1];
+        for (int i = 0; i <= count; i++) {
+            offsets[i] = buffer.getInt(position + i * Integer.BYTES);
+            if (i > 0 ? offsets[i] < offsets[i - 1] : offsets[i] != 0) {
+                throw new IOException("catalogue binaire corrompu : bornes de la table des " + table + " invalides");
+            }
+        }
+        if (offsets[count] != end) {
+            throw new IOException("catalogue binaire corrompu : bornes de la table des " + table + " invalides");
+        }
+        return offsets;
+    }
+
+    /**
+     * Calcule l'empreinte (CRC-32) des fichiers sources d'un catalogue, lus dans l'ordre donné
+     *
+     * @param sources les flots des fichiers sources, qui sont lus jusqu'au bout mais pas fermés
+     * @return l'empreinte des fichiers sources
+     * @throws IOException en cas d'erreur d'entrée/sortie
+     */
+    public static int sourceFingerprint(InputStream... sources) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] bytes = new byte[1 << 16];
+        for (InputStream source : sources) {
+            int count;
+            while ((count = source.read(bytes)) != -1) {
+                crc.update(bytes, 0, count);
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Lit l'empreinte des fichiers sources mémorisée dans l'en-tête du catalogue binaire donné
+     *
+     * @param path le chemin du catalogue binaire
+     * @return l'empreinte mémorisée, à comparer à celle retournée par sourceFingerprint
+     * @throws IOException en cas d'erreur d'entrée/sortie ou si le fichier n'est pas un catalogue binaire
+     */
+    public static int storedSourceFingerprint(Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (header.hasRemaining()) {
+                if (channel.read(header) == -1) {
+                    throw new IOException("pas un catalogue binaire");
+                }
+            }
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("pas un catalogue binaire");
+        }
+        return header.getInt(FINGERPRINT_POSITION);
+    }
+
+    /**
+     * Écrit le catalogue donné au format binaire lu par ce chargeur
+     *
+     * @param catalogue         le catalogue à écrire
+     * @param sourceFingerprint l'empreinte des fichiers dont le catalogue est issu, voir sourceFingerprint
+     * @param outputStream      le flot de sortie, qui n'est pas fermé
+     * @throws IOException en cas d'erreur d'entrée/sortie
+     */
+    public static void write(StarCatalogue catalogue, int sourceFingerprint, OutputStream outputStream)
+            throws IOException {
+        Map<String, Integer> nameIndices = new HashMap<>();
+        List<byte[]> names = new ArrayList<>();
+        int nameBytesLength = 0;
+        int[] starNameIndices = new int[catalogue.size()];
+        for (int i = 0; i < catalogue.size(); i++) {
+            Integer nameIndex = nameIndices.get(catalogue.name(i));
+            if (nameIndex == null) {
+                nameIndex = names.size();
+                nameIndices.put(catalogue.name(i), nameIndex);
+                byte[] nameBytes = catalogue.name(i).getBytes(StandardCharsets.UTF_8);
+                names.add(nameBytes);
+                nameBytesLength += nameBytes.length;
+            }
+            starNameIndices[i] = nameIndex;
+        }
+
+        int asterismCount = catalogue.asterismCount();
+        int asterismIndexCount = catalogue.asterismStart(asterismCount);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(catalogue.size());
+        out.writeInt(asterismCount);
+        out.writeInt(asterismIndexCount);
+        out.writeInt(names.size());
+        out.writeInt(nameBytesLength);
+        out.writeInt(sourceFingerprint);
+
+        for (int i = 0; i < catalogue.size(); i++) {
+            out.writeInt(catalogue.hipparcosId(i));
+            out.writeDouble(catalogue.ra(i));
+            out.writeDouble(catalogue.dec(i));
+            out.writeFloat((float) catalogue.magnitude(i));
+            out.writeFloat((float) catalogue.colorIndex(i));
+            out.writeFloat((float) catalogue.distance(i));
+            out.writeFloat((float) catalogue.rv(i));
+            out.writeInt(starNameIndices[i]);
+        }
+
+        for (int a = 0; a <= asterismCount; a++) {
+            out.writeInt(catalogue.asterismStart(a));
+        }
+        for (int position = 0; position < asterismIndexCount; position++) {
+            out.writeInt(catalogue.asterismStarIndex(position));
+        }
+
+        int offset = 0;
+        out.writeInt(offset);
+        for (byte[] name : names) {
+            offset += name.length;
+            out.writeInt(offset);
+        }
+        for (byte[] name : names) {
+            out.write(name);
+        }
+        out.flush();
+    }
+
+    /**
+     * Convertit un catalogue HYG et un fichier d'astérismes en un catalogue binaire.
+     *
+     * @param args le chemin du fichier HYG, celui du fichier d'astérismes et celui du fichier binaire à écrire
+     * @throws IOException en cas d'erreur d'entrée/sortie
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("usage : BinaryCatalogueLoader <hygdata.csv> <asterisms.txt> <catalogue.bin>");
+            System.exit(1);
+        }
+        StarCatalogue.Builder builder = new StarCatalogue.Builder()
+                .loadFrom(Path.of(args[0]), HygDatabaseLoader.INSTANCE)
+                .loadFrom(Path.of(args[1]), AsterismLoader.INSTANCE);
+        if (!builder.unresolvedHipparcosIds().isEmpty()) {
+            System.err.println(builder.unresolvedHipparcosIds().size()
+                    + " étoile(s) d'astérismes absente(s) du catalogue, numéros Hipparcos : "
+                    + builder.unresolvedHipparcosIds());
+        }
+        StarCatalogue catalogue = builder.build();
+        int fingerprint;
+        try (InputStream starStream = Files.newInputStream(Path.of(args[0]));
+             InputStream asterismStream = Files.newInputStream(Path.of(args[1]))) {
+            fingerprint = sourceFingerprint(starStream, asterismStream);
+        }
+        try (OutputStream outputStream = Files.newOutputStream(Path.of(args[2]))) {
+            write(catalogue, fingerprint, outputStream);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package ch.epfl.rigel.astronomy;
+
+import ch.epfl.rigel.Preconditions;
+import ch.epfl.rigel.math.Angle;
+
+import java.util.Arrays;
+
+/**
+ * Index des étoiles d'un catalogue selon leur position équatoriale, sous la forme d'une grille de cellules
+ * de même aire, à une seule résolution choisie selon la taille du catalogue.
+ *
+ * La sphère est découpée en anneaux de même aire (bornés par des valeurs de sin(dec) régulièrement espacées),
+ * chaque anneau étant lui-même découpé en cellules de même aire, en nombre proportionnel à sa circonférence.
+ * Les étoiles sont ordonnées par cellule (anneau puis ascension droite, et par index croissant au sein
+ * d'une cellule), de sorte que les étoiles d'une suite de cellules voisines d'un anneau occupent un intervalle
+ * de positions contigu.
+ *
+ * Les requêtes retournent des intervalles de positions : les étoiles d'index starIndex(p), pour p compris
+ * entre ranges[2k] (inclus) et ranges[2k + 1] (exclus), sont les candidates. Elles contiennent toutes
+ * les étoiles de la région demandée, mais aussi quelques étoiles voisines.
+ *
+ * @author Cyril Golaz (301379)
+ * @author Paul McIntyre (302264)
+ */
+
+public final class CelestialSphereIndex {
+
+    private final static int STARS_PER_CELL = 16;
+    private final static int MIN_RINGS = 4, MAX_RINGS = 2048;
+
+    private final int ringCount;
+    // Premier numéro de cellule de chaque anneau, et nombre de cellules de chacun
+    private final int[] ringFirstCell, ringCellCount;
+    // Première position de chaque cellule dans order (taille : nombre de cellules + 1)
+    private final int[] cellStart;
+    private final int[] order;
+
+    /**
+     * Construit l'index des étoiles stockées dans les colonnes données
+     *
+     * @param columns les colonnes des étoiles
+     */
+    CelestialSphereIndex(StarColumns columns) {
+        int size = columns.size();
+
+        ringCount = Math.max(MIN_RINGS, Math.min(MAX_RINGS,
+                (int) Math.round(Math.sqrt(size / (STARS_PER_CELL * Math.PI * Math.PI / 4)))));
+        ringFirstCell = new int[ringCount];
+        ringCellCount = new int[ringCount];
+        int cellCount = 0;
+        for (int ring = 0; ring < ringCount; ring++) {
+            double centerZ = -1 + (2 * ring + 1) / (double) ringCount;
+            ringFirstCell[ring] = cellCount;
+            ringCellCount[ring] = Math.max(1, (int) Math.round(Math.PI * ringCount * Math.sqrt(1 - centerZ * centerZ)));
+            cellCount += ringCellCount[ring];
+        }
+
+        // Tri par dénombrement des étoiles selon leur cellule, stable
+        double[] ra = columns.raColumn(), sinDec = columns.sinDecColumn();
+        int[] cells = new int[size];
+        cellStart = new int[cellCount + 1];
+        for (int i = 0; i < size; i++) {
+            cells[i] = cellOf(ra[i], sinDec[i]);
+            cellStart[cells[i] + 1] += 1;
+        }
+        for (int cell = 0; cell < cellCount; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        int[] next = Arrays.copyOf(cellStart, cellCount);
+        order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[next[cells[i]]++] = i;
+        }
+    }
+
+    private int ringOf(double sinDec) {
+        return Math.max(0, Math.min(ringCount - 1, (int) Math.floor((sinDec + 1) * ringCount / 2)));
+    }
+
+    private int cellInRing(int ring, double ra) {
+        int count = ringCellCount[ring];
+        return Math.min(count - 1, (int) Math.floor(Angle.normalizePositive(ra) / Angle.TAU * count));
+    }
+
+    private int cellOf(double ra, double sinDec) {
+        int ring = ringOf(sinDec);
+        return ringFirstCell[ring] + cellInRing(ring, ra);
+    }
+
+    /**
+     * @return le nombre d'étoiles indexées
+     */
+    public int size() {
+        return order.length;
+    }
+
+    /**
+     * @param position une position, comprise entre 0 (inclus) et size() (exclus)
+     * @return l'index, dans le catalogue, de l'étoile à la position donnée
+     */
+    public int starIndex(int position) {
+        return order[position];
+    }
+
+    /**
+     * Retourne les intervalles de positions des étoiles candidates à l'appartenance au cône donné
+     *
+     * @param ra     l'ascension droite du centre du cône, en radians
+     * @param dec    la déclinaison du centre du cône, en radians
+     * @param radius le rayon angulaire du cône, en radians
+     * @return les intervalles de positions : début (inclus) et fin (exclue) de chaque intervalle, bout à bout
+     * @throws IllegalArgumentException si le rayon est négatif
+     */
+    public int[] coneRanges(double ra, double dec, double radius) {
+        Preconditions.checkArgument(radius >= 0);
+
+        double decMin = dec - radius, decMax = dec + radius;
+        if (decMin <= -Math.PI / 2 || decMax >= Math.PI / 2 || radius >= Math.PI / 2) {
+            // Le cône contient un pôle : toutes les ascensions droites sont concernées
+            return ranges(decMin, decMax, 0, Angle.TAU);
+        }
+        // Demi-largeur maximale du cône en ascension droite
+        double halfWidth = Math.asin(Math.min(1, Math.sin(radius) / Math.cos(dec)));
+        return ranges(decMin, decMax, ra - halfWidth, 2 * halfWidth);
+    }
+
+    /**
+     * Retourne les intervalles de positions des étoiles candidates à l'appartenance au « rectangle » donné
+     * de la sphère. L'intervalle d'ascensions droites peut passer par 0 (raMin supérieure à raMax).
+     *
+     * @param raMin  l'ascension droite minimale, en radians
+     * @param raMax  l'ascension droite maximale, en radians
+     * @param decMin la déclinaison minimale, en radians
+     * @param decMax la déclinaison maximale, en radians
+     * @return les intervalles de positions : début (inclus) et fin (exclue) de chaque intervalle, bout à bout
+     * @throws IllegalArgumentException si decMin est supérieure à decMax
+     */
+    public int[] rectangleRanges(double raMin, double raMax, double decMin, double decMax) {
+        Preconditions.checkArgument(decMin <= decMax);
+        return ranges(decMin, decMax, raMin, Angle.normalizePositive(raMax - raMin));
+    }
+
+    // Intervalles des cellules des anneaux couvrant [decMin, decMax] et les ascensions droites de raFrom à
+    // raFrom + raWidth (vers l'est) ; raWidth >= TAU désigne l'anneau entier
+    private int[] ranges(double decMin, double decMax, double raFrom, double raWidth) {
+        int firstRing = ringOf(Math.sin(Math.max(-Math.PI / 2, decMin)));
+        int lastRing = ringOf(Math.sin(Math.min(Math.PI / 2, decMax)));
+        double from = Angle.normalizePositive(raFrom);
+
+        int[] ranges = new int[4 * (lastRing - firstRing + 1)];
+        int count = 0;
+        for (int ring = firstRing; ring <= lastRing; ring++) {
+            int first = ringFirstCell[ring], cells = ringCellCount[ring];
+            int fromCell = cellInRing(ring, from);
+            int toCell = (int) Math.floor((from + raWidth) / Angle.TAU * cells);
+            if (raWidth >= Angle.TAU || toCell - fromCell + 1 >= cells) {
+                count = addRange(ranges, count, first, first + cells);
+            } else if (toCell < cells) {
+                count = addRange(ranges, count, first + fromCell, first + toCell + 1);
+            } else {
+                count = addRange(ranges, count, first + fromCell, first + cells);
+                count = addRange(ranges, count, first, first + toCell - cells + 1);
+            }
+        }
+        return Arrays.copyOf(ranges, count);
+    }
+
+    // Ajoute l'intervalle de positions des cellules [fromCell, toCell[, en le fusionnant au précédent s'il le prolonge
+    private int addRange(int[] ranges, int count, int fromCell, int toCell) {
+        int from = cellStart[fromCell], to = cellStart[toCell];
+        if (from == to) {
+            return count;
+        }
+        if (count > 0 && ranges[count - 1] == from) {
+            ranges[count - 1] = to;
+            return count;
+        }
+        ranges[count] = from;
+        ranges[count + 1] = to;
+        return count + 2;
+    }
+}
@@ -0,0 +1,95 @@
+package ch.epfl.rigel.astronomy;
+
+/**
+ * Table associative (à adressage ouvert) des numéros Hipparcos vers les index des étoiles d'un catalogue.
+ * Le numéro 0, qui désigne une étoile sans numéro Hipparcos, n'est jamais indexé.
+ *
+ * @author Cyril Golaz (301379)
+ * @author Paul McIntyre (302264)
+ */
+
+final class HipparcosIndex {
+
+    private final static int INITIAL_CAPACITY = 1024;
+    private final static int NO_ID = 0;
+
+    private int[] hipparcosIds, indices;
+    private int size;
+
+    /**
+     * Construit un index vide
+     */
+    HipparcosIndex() {
+        hipparcosIds = new int[INITIAL_CAPACITY];
+        indices = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Associe l'index donné au numéro Hipparcos donné, à moins que ce numéro ne soit déjà associé
+     * à une autre étoile (la première étoile ajoutée est conservée) ou qu'il soit nul.
+     *
+     * @param hipparcosId le numéro Hipparcos
+     * @param index       l'index de l'étoile
+     */
+    void putIfAbsent(int hipparcosId, int index) {
+        if (hipparcosId == NO_ID) {
+            return;
+        }
+        if (2 * (size + 1) > hipparcosIds.length) {
+            grow();
+        }
+        int slot = slotOf(hipparcosIds, hipparcosId);
+        if (hipparcosIds[slot] == NO_ID) {
+            hipparcosIds[slot] = hipparcosId;
+            indices[slot] = index;
+            size += 1;
+        }
+    }
+
+    /**
+     * @param hipparcosId le numéro Hipparcos
+     * @return l'index de l'étoile de numéro Hipparcos donné, ou -1 s'il n'y en a pas
+     */
+    int indexOf(int hipparcosId) {
+        if (hipparcosId == NO_ID) {
+            return -1;
+        }
+        int slot = slotOf(hipparcosIds, hipparcosId);
+        return hipparcosIds[slot] == NO_ID ? -1 : indices[slot];
+    }
+
+    /**
+     * @return une copie indépendante de l'index
+     */
+    HipparcosIndex copy() {
+        HipparcosIndex copy = new HipparcosIndex();
+        copy.hipparcosIds = hipparcosIds.clone();
+        copy.indices = indices.clone();
+        copy.size = size;
+        return copy;
+    }
+
+    private void grow() {
+        int[] oldIds = hipparcosIds, oldIndices = indices;
+        hipparcosIds = new int[2 * oldIds.length];
+        indices = new int[2 * oldIds.length];
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] != NO_ID) {
+                int slot = slotOf(hipparcosIds, oldIds[i]);
+                hipparcosIds[slot] = oldIds[i];
+                indices[slot] = oldIndices[i];
+            }
+        }
+    }
+
+    // Sondage linéaire ; la capacité est une puissance de deux
+    private static int slotOf(int[] hipparcosIds, int hipparcosId) {
+        int mask = hipparcosIds.length - 1;
+        int hash = hipparcosId * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (hipparcosIds[slot] != NO_ID && hipparcosIds[slot] != hipparcosId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -1,17 +1,18 @@
 package ch.epfl.rigel.astronomy;
 
-import ch.epfl.rigel.coordinates.EquatorialCoordinates;
 import ch.epfl.rigel.math.Angle;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * Représente un chargeur de catalogue HYG
  *
+ * Le fichier est lu par blocs dans un tampon d'octets réutilisé ; les champs utiles de chaque ligne
+ * sont analysés directement dans ce tampon, sans découpage de la ligne en chaînes.
+ *
  * @author Cyril Golaz (301379)
  * @author Paul McIntyre (302264)
  */
@@ -20,67 +21,220 @@ public enum HygDatabaseLoader implements StarCatalogue.Loader {
 
     INSTANCE;
 
-    @Override
-    public void load(InputStream inputStream, StarCatalogue.Builder builder) throws IOException {
-
-        int hipIndice = 2, properIndice = 7, magIndice = 14, ciIndice = 17, raradIndice = 24, decradIndice = 25,
-                bayerIndice = 28, conIndice = 30, distIndice = 10, rvIndice = 13;
+    private final static int HIP = 1, PROPER = 6, DIST = 9, RV = 12, MAG = 13, CI = 16, RARAD = 23, DECRAD = 24,
+            BAYER = 27, CON = 29;
+    private final static int FIELD_COUNT = CON + 1;
 
-        int hip;
-        double magnitude, ci, raRad, decRad, distance, rv ;
+    private final static int BUFFER_SIZE = 1 << 16;
 
-        String name;
+    // Puissances de dix exactement représentables par un double
+    private final static double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private final static long MAX_EXACT_MANTISSA = 1L << 53;
+    private final static int MAX_MANTISSA_DIGITS = 18;
 
-        try (
-                BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.US_ASCII))
-        ) {
+    @Override
+    public void load(InputStream inputStream, StarCatalogue.Builder builder) throws IOException {
 
-            String toRead = bufferedReader.readLine();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int[] fieldStarts = new int[FIELD_COUNT + 1];
+        int length = 0;
+        boolean header = true;
+
+        try (inputStream) {
+            int read;
+            while ((read = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+
+                int lineStart = 0;
+                int lineEnd;
+                while ((lineEnd = indexOfNewLine(buffer, lineStart, length)) != -1) {
+                    if (header) {
+                        header = false;
+                    } else {
+                        loadLine(buffer, lineStart, lineEnd, fieldStarts, builder);
+                    }
+                    lineStart = lineEnd + 1;
+                }
+
+                length -= lineStart;
+                System.arraycopy(buffer, lineStart, buffer, 0, length);
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                }
+            }
 
-            while ((toRead = bufferedReader.readLine()) != null) {
+            if (length > 0 && !header) {
+                loadLine(buffer, 0, length, fieldStarts, builder);
+            }
+        }
+    }
 
+    private static int indexOfNewLine(byte[] buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
 
+    private static void loadLine(byte[] line, int from, int to, int[] fieldStarts, StarCatalogue.Builder builder) {
+        if (to > from && line[to - 1] == '\r') {
+            to -= 1;
+        }
+        if (to == from) {
+            return;
+        }
 
-                String[] strings = toRead.split(",");
+        int field = 0;
+        fieldStarts[field++] = from;
+        for (int i = from; i < to && field <= FIELD_COUNT; i++) {
+            if (line[i] == ',') {
+                fieldStarts[field++] = i + 1;
+            }
+        }
+        if (field == FIELD_COUNT) {
+            fieldStarts[field++] = to + 1;
+        }
+        if (field <= FIELD_COUNT) {
+            throw new NumberFormatException("ligne incomplète : " + new String(line, from, to - from, StandardCharsets.US_ASCII));
+        }
 
-                hip = Integer.parseInt(computeString(strings[hipIndice - 1], "0"));
+        int hip = isBlank(line, fieldStarts, HIP) ? 0 : parseInt(line, fieldStarts[HIP], fieldEnd(fieldStarts, HIP));
+        double magnitude = parseDouble(line, fieldStarts, MAG, 0);
+        double ci = parseDouble(line, fieldStarts, CI, 0);
+        double raRad = Angle.normalizePositive(parseDouble(line, fieldStarts[RARAD], fieldEnd(fieldStarts, RARAD)));
+        double decRad = parseDouble(line, fieldStarts[DECRAD], fieldEnd(fieldStarts, DECRAD));
+        double distance = parseDouble(line, fieldStarts, DIST, 0);
+        double rv = parseDouble(line, fieldStarts, RV, 0);
 
+        builder.addStar(hip, name(line, fieldStarts), raRad, decRad, (float) magnitude, (float) ci, (float) distance, (float) rv);
+    }
 
-                name = computeString(strings[properIndice - 1], strings[bayerIndice - 1], strings[conIndice - 1]);
+    private static int fieldEnd(int[] fieldStarts, int field) {
+        return fieldStarts[field + 1] - 1;
+    }
 
+    private static boolean isBlank(byte[] line, int[] fieldStarts, int field) {
+        for (int i = fieldStarts[field]; i < fieldEnd(fieldStarts, field); i++) {
+            // Les octets sont signés : ceux des caractères non ASCII sont négatifs, mais ne sont pas des blancs
+            if ((line[i] & 0xFF) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
 
-                magnitude = Double.parseDouble(computeString(strings[magIndice - 1], "0"));
+    private static String string(byte[] line, int[] fieldStarts, int field) {
+        int from = fieldStarts[field];
+        return new String(line, from, fieldEnd(fieldStarts, field) - from, StandardCharsets.US_ASCII);
+    }
 
-                ci = Double.parseDouble(computeString(strings[ciIndice - 1],"0"));
+    private static String name(byte[] line, int[] fieldStarts) {
+        if (!isBlank(line, fieldStarts, PROPER)) {
+            return string(line, fieldStarts, PROPER);
+        } else if (!isBlank(line, fieldStarts, BAYER)) {
+            return string(line, fieldStarts, BAYER) + " " + string(line, fieldStarts, CON);
+        }
+        return "?" + " " + string(line, fieldStarts, CON);
+    }
 
-                raRad = Angle.normalizePositive(Double.parseDouble(strings[raradIndice - 1]));
-                decRad = Double.parseDouble(strings[decradIndice - 1]);
+    private static int parseInt(byte[] line, int from, int to) {
+        int i = from;
+        boolean negative = i < to && line[i] == '-';
+        if (negative || (i < to && line[i] == '+')) {
+            i += 1;
+        }
+        if (i == to || to - i > 9) {
+            return Integer.parseInt(new String(line, from, to - from, StandardCharsets.US_ASCII));
+        }
+        int value = 0;
+        for (; i < to; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Integer.parseInt(new String(line, from, to - from, StandardCharsets.US_ASCII));
+            }
+            value = 10 * value + digit;
+        }
+        return negative ? -value : value;
+    }
 
-                distance = Double.parseDouble(computeString(strings[distIndice - 1], "0"));
-                rv = Double.parseDouble(computeString(strings[rvIndice - 1],"0"));
+    private static double parseDouble(byte[] line, int[] fieldStarts, int field, double defaultValue) {
+        return isBlank(line, fieldStarts, field)
+                ? defaultValue
+                : parseDouble(line, fieldStarts[field], fieldEnd(fieldStarts, field));
+    }
 
-                EquatorialCoordinates equatorialCoordinates = EquatorialCoordinates.of(raRad, decRad);
-                Star star = new Star(hip, name, equatorialCoordinates, (float) magnitude, (float) ci, (float) distance,(float) rv);
+    /**
+     * Analyse un nombre décimal sans construire de chaîne lorsque la mantisse et l'exposant
+     * permettent un calcul exact (mantisse d'au plus 53 bits, puissance de dix exacte).
+     * Dans les autres cas, le calcul est délégué à Double.parseDouble, de sorte que le résultat
+     * est toujours identique à celui de Double.parseDouble.
+     */
+    private static double parseDouble(byte[] line, int from, int to) {
+        int i = from;
+        boolean negative = i < to && line[i] == '-';
+        if (negative || (i < to && line[i] == '+')) {
+            i += 1;
+        }
 
-                builder.addStar(star);
+        long mantissa = 0;
+        int significantDigits = 0, exponent = 0;
+        boolean hasDigits = false, exact = true;
+
+        for (; i < to && isDigit(line[i]); i++) {
+            hasDigits = true;
+            if (significantDigits < MAX_MANTISSA_DIGITS) {
+                mantissa = 10 * mantissa + (line[i] - '0');
+                significantDigits += mantissa == 0 ? 0 : 1;
+            } else {
+                exact &= line[i] == '0';
+                exponent += 1;
             }
         }
+        if (i < to && line[i] == '.') {
+            for (i += 1; i < to && isDigit(line[i]); i++) {
+                hasDigits = true;
+                if (significantDigits < MAX_MANTISSA_DIGITS) {
+                    mantissa = 10 * mantissa + (line[i] - '0');
+                    significantDigits += mantissa == 0 ? 0 : 1;
+                    exponent -= 1;
+                } else {
+                    exact &= line[i] == '0';
+                }
+            }
+        }
+        if (hasDigits && i < to && (line[i] == 'e' || line[i] == 'E')) {
+            i += 1;
+            boolean negativeExponent = i < to && line[i] == '-';
+            if (negativeExponent || (i < to && line[i] == '+')) {
+                i += 1;
+            }
+            int explicitExponent = 0;
+            boolean hasExponentDigits = false;
+            for (; i < to && isDigit(line[i]) && explicitExponent < 10_000; i++) {
+                hasExponentDigits = true;
+                explicitExponent = 10 * explicitExponent + (line[i] - '0');
+            }
+            exact &= hasExponentDigits;
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
 
-    }
-
-    private String computeString(String s1, String defaultString) {
-        if (!s1.isBlank()) {
-            return s1;
+        if (!hasDigits || !exact || i != to || mantissa > MAX_EXACT_MANTISSA
+                || exponent < -(POWERS_OF_TEN.length - 1) || exponent > POWERS_OF_TEN.length - 1) {
+            return Double.parseDouble(new String(line, from, to - from, StandardCharsets.US_ASCII));
         }
-        return defaultString;
+
+        double value = exponent < 0
+                ? mantissa / POWERS_OF_TEN[-exponent]
+                : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
     }
 
-    private String computeString(String s1, String s2, String s3) {
-        if (!s1.isBlank()) {
-            return s1;
-        } else if (!s2.isBlank()) {
-            return s2 + " " + s3;
-        }
-        return "?" + " " + s3;
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
     }
 }
@@ -0,0 +1,135 @@
+package ch.epfl.rigel.astronomy;
+
+import java.util.Arrays;
+
+/**
+ * Arbre k-d (k = 2) sur des positions du plan, permettant de trouver la position la plus proche
+ * d'un point en temps logarithmique et sans allocation.
+ *
+ * L'arbre est implicite : le nœud d'un intervalle de l'ordre est son élément médian, qui sépare
+ * selon l'axe x (profondeur paire) ou y (profondeur impaire) les éléments placés avant et après lui.
+ *
+ * @author Cyril Golaz (301379)
+ * @author Paul McIntyre (302264)
+ */
+
+final class KdTree {
+
+    private final double[] positions;
+    private final int[] order;
+
+    // Meilleure position trouvée par la recherche en cours, conservée ici plutôt que dans un objet alloué à
+    // chaque recherche ; closestTo est synchronisée afin que deux recherches ne les partagent jamais
+    private int nearestIndex;
+    private double nearestSquaredDistance;
+
+    /**
+     * Construit l'arbre sur les positions d'index donnés. Les positions non finies sont ignorées.
+     *
+     * @param positions les positions : l'abscisse de la position i à l'index 2i, son ordonnée à l'index 2i + 1
+     * @param indices   les index des positions à indexer
+     * @param count     le nombre d'index à prendre en compte dans indices
+     */
+    KdTree(double[] positions, int[] indices, int count) {
+        this.positions = positions;
+
+        int[] finite = new int[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int index = indices[i];
+            if (Double.isFinite(positions[2 * index]) && Double.isFinite(positions[2 * index + 1])) {
+                finite[size++] = index;
+            }
+        }
+        order = size == count ? finite : Arrays.copyOf(finite, size);
+
+        build(0, order.length, 0);
+    }
+
+    private void build(int from, int to, int axis) {
+        while (to - from > 1) {
+            int middle = (from + to) >>> 1;
+            select(from, to - 1, middle, axis);
+            build(from, middle, axis ^ 1);
+            from = middle + 1;
+            axis ^= 1;
+        }
+    }
+
+    // Place en order[k] l'élément de rang k de l'intervalle [left, right] selon l'axe donné (sélection rapide)
+    private void select(int left, int right, int k, int axis) {
+        while (right > left) {
+            double pivot = coordinate(order[(left + right) >>> 1], axis);
+            int i = left, j = right;
+            while (i <= j) {
+                while (coordinate(order[i], axis) < pivot) {
+                    i += 1;
+                }
+                while (coordinate(order[j], axis) > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    int swapped = order[i];
+                    order[i] = order[j];
+                    order[j] = swapped;
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private double coordinate(int index, int axis) {
+        return positions[2 * index + axis];
+    }
+
+    /**
+     * Retourne l'index de la position la plus proche du point donné, à condition que sa distance au point
+     * soit strictement inférieure à maxDistance. En cas d'égalité, la position de plus petit index est retenue.
+     *
+     * @param x           l'abscisse du point
+     * @param y           l'ordonnée du point
+     * @param maxDistance la distance maximale (exclue)
+     * @return l'index de la position la plus proche, ou -1 si aucune ne se trouve assez près
+     */
+    synchronized int closestTo(double x, double y, double maxDistance) {
+        nearestIndex = -1;
+        nearestSquaredDistance = maxDistance * maxDistance;
+        search(0, order.length, 0, x, y);
+        return nearestIndex;
+    }
+
+    private void search(int from, int to, int axis, double x, double y) {
+        while (to > from) {
+            int middle = (from + to) >>> 1;
+            int index = order[middle];
+
+            double dx = x - positions[2 * index], dy = y - positions[2 * index + 1];
+            double squaredDistance = dx * dx + dy * dy;
+            if (squaredDistance < nearestSquaredDistance
+                    || (squaredDistance == nearestSquaredDistance && nearestIndex >= 0 && index < nearestIndex)) {
+                nearestSquaredDistance = squaredDistance;
+                nearestIndex = index;
+            }
+
+            double delta = axis == 0 ? dx : dy;
+            int nearFrom = delta < 0 ? from : middle + 1, nearTo = delta < 0 ? middle : to;
+            int farFrom = delta < 0 ? middle + 1 : from, farTo = delta < 0 ? to : middle;
+
+            search(nearFrom, nearTo, axis ^ 1, x, y);
+            if (delta * delta > nearestSquaredDistance) {
+                return;
+            }
+            from = farFrom;
+            to = farTo;
+            axis ^= 1;
+        }
+    }
+}
@@ -2,11 +2,13 @@ package ch.epfl.rigel.astronomy;
 
 import ch.epfl.rigel.Preconditions;
 import ch.epfl.rigel.coordinates.*;
+import ch.epfl.rigel.instrumentation.PipelineMetrics;
+import ch.epfl.rigel.instrumentation.PipelineStage;
 
 import java.time.ZonedDateTime;
 import java.util.*;
-
-import static ch.epfl.rigel.astronomy.Epoch.J2010;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Classe représentant une photgraphie du ciel, à un moment et à un endroit donnés.
@@ -16,7 +18,14 @@ import static ch.epfl.rigel.astronomy.Epoch.J2010;
  */
 public class ObservedSky {
 
-    private double[][] planetPositions, starsPositions;
+    /**
+     * Nombre d'étoiles à partir duquel leur projection est, par défaut, répartie entre plusieurs fils
+     */
+    public final static int DEFAULT_PARALLEL_THRESHOLD = 32_768;
+
+    private double[][] planetPositions;
+    private double[] starsPositions;
+    private int[] visibleStars;
 
     private Moon moon;
     private CartesianCoordinates moonProjectedPosition;
@@ -26,7 +35,9 @@ public class ObservedSky {
 
     private List<Planet> planets;
 
+    private SkyEphemeris ephemeris;
     private StarCatalogue starCatalogue;
+    private final KdTree starIndex;
 
 
     /**
@@ -41,69 +52,238 @@ public class ObservedSky {
 
     public ObservedSky(ZonedDateTime zonedDateTime, GeographicCoordinates geographicCoordinates,
                        StereographicProjection stereographicProjection, StarCatalogue starCatalogue) {
+        this(zonedDateTime, geographicCoordinates, stereographicProjection, starCatalogue, null,
+                Double.POSITIVE_INFINITY, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Construit le ciel observé, comme le constructeur ci-dessus, en ne projetant que les étoiles
+     * susceptibles d'être visibles dans la portion du plan donnée, ainsi que les étoiles des astérismes.
+     *
+     * @param zonedDateTime           l'instant d'observation
+     * @param geographicCoordinates   la position d'observation
+     * @param stereographicProjection la projection à utiliser
+     * @param starCatalogue           le catalogue contenant les étoiles et les astérismes
+     * @param viewingFrustum          la portion visible du plan
+     */
+
+    public ObservedSky(ZonedDateTime zonedDateTime, GeographicCoordinates geographicCoordinates,
+                       StereographicProjection stereographicProjection, StarCatalogue starCatalogue,
+                       ViewingFrustum viewingFrustum) {
+        this(zonedDateTime, geographicCoordinates, stereographicProjection, starCatalogue,
+                Objects.requireNonNull(viewingFrustum), Double.POSITIVE_INFINITY, DEFAULT_PARALLEL_THRESHOLD);
+    }
 
+    /**
+     * Construit le ciel observé, comme le constructeur ci-dessus, en ne retenant que les étoiles de magnitude
+     * inférieure ou égale à limitingMagnitude, et en répartissant la projection des étoiles entre les fils
+     * du ForkJoinPool commun par tranches d'au plus parallelThreshold étoiles.
+     * Le résultat est identique à celui d'une projection séquentielle.
+     *
+     * @param zonedDateTime           l'instant d'observation
+     * @param geographicCoordinates   la position d'observation
+     * @param stereographicProjection la projection à utiliser
+     * @param starCatalogue           le catalogue contenant les étoiles et les astérismes
+     * @param viewingFrustum          la portion visible du plan, ou null pour projeter toutes les étoiles
+     * @param limitingMagnitude       la magnitude limite des étoiles visibles (Double.POSITIVE_INFINITY
+     *                                pour n'en exclure aucune)
+     * @param parallelThreshold       le nombre maximal d'étoiles projetées par un même fil
+     * @throws IllegalArgumentException si la magnitude limite est NaN,
+     *                                  ou si parallelThreshold n'est pas strictement positif
+     */
+
+    public ObservedSky(ZonedDateTime zonedDateTime, GeographicCoordinates geographicCoordinates,
+                       StereographicProjection stereographicProjection, StarCatalogue starCatalogue,
+                       ViewingFrustum viewingFrustum, double limitingMagnitude, int parallelThreshold) {
+        this(new SkyEphemeris(zonedDateTime, geographicCoordinates), stereographicProjection, starCatalogue,
+                viewingFrustum, limitingMagnitude, parallelThreshold);
+    }
+
+    /**
+     * Construit le ciel observé, comme le constructeur ci-dessus, à partir d'éphémérides déjà calculées :
+     * seules les positions des objets célestes dans le plan sont calculées.
+     *
+     * @param ephemeris               les éphémérides de l'instant et de la position d'observation
+     * @param stereographicProjection la projection à utiliser
+     * @param starCatalogue           le catalogue contenant les étoiles et les astérismes
+     * @param viewingFrustum          la portion visible du plan, ou null pour projeter toutes les étoiles
+     * @param limitingMagnitude       la magnitude limite des étoiles visibles (Double.POSITIVE_INFINITY
+     *                                pour n'en exclure aucune)
+     * @param parallelThreshold       le nombre maximal d'étoiles projetées par un même fil
+     * @throws IllegalArgumentException si la magnitude limite est NaN,
+     *                                  ou si parallelThreshold n'est pas strictement positif
+     */
+
+    public ObservedSky(SkyEphemeris ephemeris, StereographicProjection stereographicProjection, StarCatalogue starCatalogue,
+                       ViewingFrustum viewingFrustum, double limitingMagnitude, int parallelThreshold) {
+
+        Preconditions.checkArgument(!Double.isNaN(limitingMagnitude));
+        Preconditions.checkArgument(parallelThreshold > 0);
+
+        this.ephemeris = ephemeris;
         this.starCatalogue = starCatalogue;
 
-        double days = J2010.daysUntil(zonedDateTime);
-        EclipticToEquatorialConversion eclipticToEquatorialConversion = new EclipticToEquatorialConversion(zonedDateTime);
-        EquatorialToHorizontalConversion equatorialToHorizontalConversion = new EquatorialToHorizontalConversion(zonedDateTime, geographicCoordinates);
-
-        moon = MoonModel.MOON.at(days, eclipticToEquatorialConversion);
-        HorizontalCoordinates moonHorizontalCoord = equatorialToHorizontalConversion.apply(moon.equatorialPos());
-        moonProjectedPosition = stereographicProjection.apply(moonHorizontalCoord);
-
-        sun = SunModel.SUN.at(days, eclipticToEquatorialConversion);
-        HorizontalCoordinates sunHorizontalCoord = equatorialToHorizontalConversion.apply(sun.equatorialPos());
-        sunProjectedPosition = stereographicProjection.apply(sunHorizontalCoord);
-
-
-        planets = new ArrayList<>();
-        planets.add(new Planet("Mercure",
-                PlanetModel.MERCURY.at(days, eclipticToEquatorialConversion).equatorialPos(),
-                (float) PlanetModel.MERCURY.at(days, eclipticToEquatorialConversion).angularSize(),
-                (float) PlanetModel.MERCURY.at(days, eclipticToEquatorialConversion).magnitude()));
-        planets.add(new Planet("Mars",
-                PlanetModel.MARS.at(days, eclipticToEquatorialConversion).equatorialPos(),
-                (float) PlanetModel.MARS.at(days, eclipticToEquatorialConversion).angularSize(),
-                (float) PlanetModel.MARS.at(days, eclipticToEquatorialConversion).magnitude()));
-        planets.add(new Planet("Jupiter",
-                PlanetModel.JUPITER.at(days, eclipticToEquatorialConversion).equatorialPos(),
-                (float) PlanetModel.JUPITER.at(days, eclipticToEquatorialConversion).angularSize(),
-                (float) PlanetModel.JUPITER.at(days, eclipticToEquatorialConversion).magnitude()));
-        planets.add(new Planet("Saturne",
-                PlanetModel.SATURN.at(days, eclipticToEquatorialConversion).equatorialPos(),
-                (float) PlanetModel.SATURN.at(days, eclipticToEquatorialConversion).angularSize(),
-                (float) PlanetModel.SATURN.at(days, eclipticToEquatorialConversion).magnitude()));
-        planets.add(new Planet("Vénus",
-                PlanetModel.VENUS.at(days, eclipticToEquatorialConversion).equatorialPos(),
-                (float) PlanetModel.VENUS.at(days, eclipticToEquatorialConversion).angularSize(),
-                (float) PlanetModel.VENUS.at(days, eclipticToEquatorialConversion).magnitude()));
-        planets.add(new Planet("Uranus",
-                PlanetModel.URANUS.at(days, eclipticToEquatorialConversion).equatorialPos(),
-                (float) PlanetModel.URANUS.at(days, eclipticToEquatorialConversion).angularSize(),
-                (float) PlanetModel.URANUS.at(days, eclipticToEquatorialConversion).magnitude()));
-        planets.add(new Planet("Neptune",
-                PlanetModel.NEPTUNE.at(days, eclipticToEquatorialConversion).equatorialPos(),
-                (float) PlanetModel.NEPTUNE.at(days, eclipticToEquatorialConversion).angularSize(),
-                (float) PlanetModel.NEPTUNE.at(days, eclipticToEquatorialConversion).magnitude()));
-
-        planetPositions = new double[7][2];
+        EquatorialToHorizontalConversion equatorialToHorizontalConversion = ephemeris.getEquatorialToHorizontalConversion();
+
+        moon = ephemeris.getMoon();
+        moonProjectedPosition = stereographicProjection.apply(ephemeris.getMoonHorizontalPosition());
+
+        sun = ephemeris.getSun();
+        sunProjectedPosition = stereographicProjection.apply(ephemeris.getSunHorizontalPosition());
+
+        planets = ephemeris.getPlanets();
+
+        planetPositions = new double[planets.size()][2];
         for (int i = 0; i < planets.size(); i++) {
-            HorizontalCoordinates planetHorizontalCoord = equatorialToHorizontalConversion.apply(planets.get(i).equatorialPos());
-            CartesianCoordinates planetProjectedPosition = stereographicProjection.apply(planetHorizontalCoord);
+            CartesianCoordinates planetProjectedPosition = stereographicProjection.apply(ephemeris.getPlanetHorizontalPosition(i));
             planetPositions[i][0] = planetProjectedPosition.x();
             planetPositions[i][1] = planetProjectedPosition.y();
         }
 
-        int catalogueSize = starCatalogue.stars().size();
-        starsPositions = new double[catalogueSize][2];
-        for (int i = 0; i < catalogueSize; i++) {
-            HorizontalCoordinates starHorizontalCoord = equatorialToHorizontalConversion.apply(starCatalogue.stars().get(i).equatorialPos());
-            CartesianCoordinates starProjectedPosition = stereographicProjection.apply(starHorizontalCoord);
-            starsPositions[i][0] = starProjectedPosition.x();
-            starsPositions[i][1] = starProjectedPosition.y();
+        int catalogueSize = starCatalogue.size();
+        starsPositions = new double[2 * catalogueSize];
+        EquatorialToPlaneProjection starProjection =
+                new EquatorialToPlaneProjection(equatorialToHorizontalConversion, stereographicProjection);
+
+        if (viewingFrustum == null && limitingMagnitude == Double.POSITIVE_INFINITY) {
+            projectStars(starProjection, null, catalogueSize, parallelThreshold);
+            visibleStars = new int[catalogueSize];
+            for (int i = 0; i < catalogueSize; i++) {
+                visibleStars[i] = i;
+            }
+        } else {
+            // Les étoiles qui ne sont pas projetées ont une position indéfinie
+            Arrays.fill(starsPositions, Double.NaN);
+
+            // La durée de l'élimination ne comprend pas celle de la projection des étoiles candidates
+            long cullingStart = System.nanoTime();
+            int[] candidates = candidateStars(starProjection, viewingFrustum, limitingMagnitude);
+            long cullingNanos = System.nanoTime() - cullingStart;
+
+            projectStars(starProjection, candidates, candidates.length, parallelThreshold);
+
+            cullingStart = System.nanoTime();
+            int visibleCount = 0;
+            for (int star : candidates) {
+                if (viewingFrustum == null || viewingFrustum.contains(starsPositions[2 * star], starsPositions[2 * star + 1])) {
+                    candidates[visibleCount++] = star;
+                }
+            }
+            // Les étoiles visibles sont dessinées dans l'ordre du catalogue
+            visibleStars = Arrays.copyOf(candidates, visibleCount);
+            Arrays.sort(visibleStars);
+            PipelineMetrics.histogram(PipelineStage.CULLING).record(cullingNanos + System.nanoTime() - cullingStart);
+
+            // Les lignes des astérismes peuvent traverser la portion visible même si leurs étoiles n'y sont pas
+            starCatalogue.projectAsterisms(starProjection, starsPositions);
         }
 
+        // L'index spatial est construit ici, donc par le fil qui calcule le ciel, et non lors de la première
+        // recherche, qui a lieu sur le fil de l'interface graphique dès que le ciel est affiché
+        starIndex = new KdTree(starsPositions, visibleStars, visibleStars.length);
+    }
+
+    // Retourne les index des étoiles de magnitude inférieure ou égale à la limite qui sont susceptibles
+    // d'être visibles : celles du cône entourant la portion visible du plan, ou bien les plus brillantes
+    // du catalogue, parcourues par magnitude croissante jusqu'à la première trop faible, si elles sont moins nombreuses
+    private int[] candidateStars(EquatorialToPlaneProjection starProjection, ViewingFrustum viewingFrustum,
+                                 double limitingMagnitude) {
+        int brighterCount = limitingMagnitude == Double.POSITIVE_INFINITY
+                ? starCatalogue.size()
+                : starCatalogue.brighterStarCount(limitingMagnitude);
+
+        CelestialSphereIndex sphereIndex = null;
+        int[] ranges = null;
+        int coneCount = Integer.MAX_VALUE;
+        if (viewingFrustum != null) {
+            EquatorialCoordinates center = starProjection.center();
+            sphereIndex = starCatalogue.sphereIndex();
+            ranges = sphereIndex.coneRanges(center.ra(), center.dec(), Math.min(Math.PI, viewingFrustum.angularRadius()));
+            coneCount = 0;
+            for (int k = 0; k < ranges.length; k += 2) {
+                coneCount += ranges[k + 1] - ranges[k];
+            }
+        }
+
+        if (brighterCount <= coneCount) {
+            int[] candidates = new int[brighterCount];
+            for (int rank = 0; rank < brighterCount; rank++) {
+                candidates[rank] = starCatalogue.starIndexByMagnitude(rank);
+            }
+            return candidates;
+        }
+
+        int[] candidates = new int[coneCount];
+        int candidateCount = 0;
+        for (int k = 0; k < ranges.length; k += 2) {
+            for (int position = ranges[k]; position < ranges[k + 1]; position++) {
+                int star = sphereIndex.starIndex(position);
+                if (starCatalogue.magnitude(star) <= limitingMagnitude) {
+                    candidates[candidateCount++] = star;
+                }
+            }
+        }
+        return candidateCount == coneCount ? candidates : Arrays.copyOf(candidates, candidateCount);
+    }
+
+    // Projette les étoiles d'index indices[0 .. count[ (ou 0 .. count[ si indices est null)
+    private void projectStars(EquatorialToPlaneProjection starProjection, int[] indices, int count, int parallelThreshold) {
+        long start = System.nanoTime();
+        if (count <= parallelThreshold) {
+            new StarProjectionTask(starCatalogue, starProjection, starsPositions, indices, 0, count, parallelThreshold).compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(
+                    new StarProjectionTask(starCatalogue, starProjection, starsPositions, indices, 0, count, parallelThreshold));
+        }
+        PipelineMetrics.record(PipelineStage.STAR_PROJECTION, start);
+    }
+
+    /**
+     * Tâche projetant les étoiles d'un intervalle d'index (ou d'un intervalle d'un tableau d'index),
+     * en le divisant tant qu'il dépasse le seuil
+     */
+    @SuppressWarnings("serial") // La tâche n'est jamais sérialisée
+    private static final class StarProjectionTask extends RecursiveAction {
+
+        private final StarCatalogue starCatalogue;
+        private final EquatorialToPlaneProjection projection;
+        private final double[] positions;
+        private final int[] indices;
+        private final int from, to, threshold;
+
+        private StarProjectionTask(StarCatalogue starCatalogue, EquatorialToPlaneProjection projection,
+                                   double[] positions, int[] indices, int from, int to, int threshold) {
+            this.starCatalogue = starCatalogue;
+            this.projection = projection;
+            this.positions = positions;
+            this.indices = indices;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > threshold) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new StarProjectionTask(starCatalogue, projection, positions, indices, from, middle, threshold),
+                        new StarProjectionTask(starCatalogue, projection, positions, indices, middle, to, threshold));
+            } else if (indices == null) {
+                starCatalogue.project(projection, positions, from, to);
+            } else {
+                starCatalogue.project(projection, positions, indices, from, to);
+            }
+        }
+    }
+
+    /**
+     * une méthode d'accès permettant d'obtenir les éphémérides à partir desquelles le ciel a été calculé
+     *
+     * @return les éphémérides de l'instant et de la position d'observation
+     */
+
+    public SkyEphemeris getEphemeris() {
+        return ephemeris;
     }
 
     /**
@@ -153,7 +333,7 @@ public class ObservedSky {
      */
 
     public List<Planet> getPlanets() {
-        return List.copyOf(planets);
+        return planets;
     }
 
     /**
@@ -169,23 +349,47 @@ public class ObservedSky {
     /**
      * méthode d'accès aux étoiles
      *
-     * @return une liste d'étoiles
+     * @return une liste d'étoiles, construites à la demande
      */
 
     public List<Star> getStarList() {
         return starCatalogue.stars();
     }
 
+    /**
+     * méthode d'accès au catalogue, permettant de lire les attributs des étoiles sans les construire
+     *
+     * @return le catalogue d'étoiles
+     */
+
+    public StarCatalogue getStarCatalogue() {
+        return starCatalogue;
+    }
+
     /**
      * méthodes d'accès aux positions des étoiles dans le plan
      *
-     * @return un tableau contenant les positions des étoiles, dans le plan
+     * @return un tableau contenant les positions des étoiles, dans le plan : l'abscisse de l'étoile d'index i
+     * se trouve à l'index 2i, son ordonnée à l'index 2i + 1. Si le ciel a été construit pour une portion
+     * du plan, seules les positions des étoiles visibles et des étoiles des astérismes sont définies,
+     * les autres valant NaN ; il en va de même si une magnitude limite a été donnée.
      */
 
-    public double[][] getStarsProjectedPositions() {
+    public double[] getStarsProjectedPositions() {
         return starsPositions;
     }
 
+    /**
+     * méthode d'accès aux index des étoiles visibles, c'est-à-dire des étoiles assez brillantes se trouvant
+     * dans la portion du plan pour laquelle le ciel a été construit (ou dans tout le plan)
+     *
+     * @return un tableau contenant, par ordre croissant, les index des étoiles visibles
+     */
+
+    public int[] getVisibleStarIndices() {
+        return visibleStars;
+    }
+
     /**
      * méthode d'accès aux astérismes
      *
@@ -208,7 +412,9 @@ public class ObservedSky {
     }
 
     /**
-     * Nous permet d'obtenir l'objet céleste le plus proche de coordonnées données, en respectant une distance maximum
+     * Nous permet d'obtenir l'objet céleste le plus proche de coordonnées données, en respectant une distance maximum.
+     * Les étoiles visibles sont recherchées au moyen d'un index spatial construit une seule fois par ciel observé ;
+     * en cas d'égalité, la Lune, puis le Soleil, puis les planètes, puis les étoiles sont privilégiés.
      *
      * @param cartesianCoordinates les coordonnées du plan, données
      * @param max                  la distance maximale à respecter
@@ -218,40 +424,44 @@ public class ObservedSky {
     public Optional<CelestialObject> objectClosestTo(CartesianCoordinates cartesianCoordinates, double max) {
 
         Preconditions.checkArgument(max > 0);
+        long start = System.nanoTime();
 
-        Map<Double, CelestialObject> allDistances = new HashMap<>();
+        double x = cartesianCoordinates.x(), y = cartesianCoordinates.y();
 
-        double moonDist = computeDistance(cartesianCoordinates, getMoonProjectedPosition());
-        allDistances.put(moonDist, getMoon());
+        CelestialObject closest = null;
+        double closestDistance = max;
 
-        double sunDist = computeDistance(cartesianCoordinates, getSunProjectedPosition());
-        allDistances.put(sunDist, getSun());
-
-        for (int i = 0; i < getPlanets().size(); i++) {
-            double planetDist = computeDistance(cartesianCoordinates,
-                    CartesianCoordinates.of(getPlanetsProjectedPositions()[i][0], getPlanetsProjectedPositions()[i][1]));
-            allDistances.put(planetDist, getPlanets().get(i));
+        double moonDist = computeDistance(x, y, moonProjectedPosition.x(), moonProjectedPosition.y());
+        if (moonDist < closestDistance) {
+            closest = moon;
+            closestDistance = moonDist;
         }
 
-        for (int i = 0; i < getStarList().size(); i++) {
-            double starDist = computeDistance(cartesianCoordinates,
-                    CartesianCoordinates.of(getStarsProjectedPositions()[i][0], getStarsProjectedPositions()[i][1]));
-            allDistances.put(starDist, getStarList().get(i));
+        double sunDist = computeDistance(x, y, sunProjectedPosition.x(), sunProjectedPosition.y());
+        if (sunDist < closestDistance) {
+            closest = sun;
+            closestDistance = sunDist;
         }
 
-        double minDistance = Math.min(moonDist, sunDist);
-
-        for (Double aDouble : allDistances.keySet()) {
-            minDistance = (aDouble < minDistance) ? aDouble : minDistance;
+        for (int i = 0; i < planets.size(); i++) {
+            double planetDist = computeDistance(x, y, planetPositions[i][0], planetPositions[i][1]);
+            if (planetDist < closestDistance) {
+                closest = planets.get(i);
+                closestDistance = planetDist;
+            }
         }
-        if (minDistance < max) {
-            return (Optional.of(allDistances.get(minDistance)));
+
+        int closestStar = starIndex.closestTo(x, y, closestDistance);
+        if (closestStar >= 0) {
+            closest = starCatalogue.star(closestStar);
         }
-        return Optional.empty();
 
+        PipelineMetrics.record(PipelineStage.PICKING, start);
+        return Optional.ofNullable(closest);
     }
 
-    private double computeDistance(CartesianCoordinates c1, CartesianCoordinates c2) {
-        return Math.sqrt(Math.pow(c1.x() - c2.x(), 2) + Math.pow(c1.y() - c2.y(), 2));
+    private double computeDistance(double x1, double y1, double x2, double y2) {
+        double dx = x1 - x2, dy = y1 - y2;
+        return Math.sqrt(dx * dx + dy * dy);
     }
 }
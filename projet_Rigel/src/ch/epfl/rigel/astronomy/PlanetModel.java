@@ -5,6 +5,8 @@ import ch.epfl.rigel.coordinates.EclipticToEquatorialConversion;
 import ch.epfl.rigel.coordinates.EquatorialCoordinates;
 import ch.epfl.rigel.math.Angle;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -61,25 +63,53 @@ public enum PlanetModel implements CelestialObjectModel<Planet> {
     private final static double EARTH_W_RAD = Angle.ofDeg(EARTH.w);
     private final static double EARTH_EPSILON_RAD = Angle.ofDeg(EARTH.epsilon);
 
-    private double getEarthTrueAnomaly(double daysSinceJ2010) {
+    private static double getEarthTrueAnomaly(double daysSinceJ2010) {
         double meanAnomaly = (ANGULAR_SPEED) * daysSinceJ2010 / EARTH.Tp + EARTH_EPSILON_RAD
                 - EARTH_W_RAD;
         double trueAnomaly = meanAnomaly + 2 * EARTH.e * Math.sin(meanAnomaly);
         return trueAnomaly;
     }
 
-    private double getEarthLon(double daysSinceJ2010) {
-        double Lon = getEarthTrueAnomaly(daysSinceJ2010) + EARTH_W_RAD;
+    private static double getEarthLon(double earthTrueAnomaly) {
+        double Lon = earthTrueAnomaly + EARTH_W_RAD;
         return Lon;
     }
 
-    private double getEarthRadius(double daysSinceJ2010) {
-        double R = EARTH.a * (1 - Math.pow(EARTH.e, 2)) / (1 + EARTH.e * Math.cos(getEarthTrueAnomaly(daysSinceJ2010)));
+    private static double getEarthRadius(double earthTrueAnomaly) {
+        double R = EARTH.a * (1 - Math.pow(EARTH.e, 2)) / (1 + EARTH.e * Math.cos(earthTrueAnomaly));
         return R;
     }
 
+    /**
+     * Calcule en une passe toutes les planètes autres que la Terre, la position héliocentrique
+     * de la Terre n'étant calculée qu'une fois pour toutes les planètes
+     *
+     * @param daysSinceJ2010                 le nombre de jours depuis l'époque J2010 (peut être négatif)
+     * @param eclipticToEquatorialConversion la conversion permettant d'obtenir les coordonnées équatoriales
+     * @return la liste non modifiable des planètes, dans l'ordre de ALL, sans la Terre
+     */
+    public static List<Planet> allAt(double daysSinceJ2010, EclipticToEquatorialConversion eclipticToEquatorialConversion) {
+        double earthTrueAnomaly = getEarthTrueAnomaly(daysSinceJ2010);
+        double L = getEarthLon(earthTrueAnomaly);
+        double R = getEarthRadius(earthTrueAnomaly);
+
+        List<Planet> planets = new ArrayList<>(ALL.size() - 1);
+        for (PlanetModel planetModel : ALL) {
+            if (planetModel != EARTH) {
+                planets.add(planetModel.at(daysSinceJ2010, eclipticToEquatorialConversion, L, R));
+            }
+        }
+        return Collections.unmodifiableList(planets);
+    }
+
     @Override
     public Planet at(double daysSinceJ2010, EclipticToEquatorialConversion eclipticToEquatorialConversion) {
+        double earthTrueAnomaly = getEarthTrueAnomaly(daysSinceJ2010);
+        return at(daysSinceJ2010, eclipticToEquatorialConversion, getEarthLon(earthTrueAnomaly), getEarthRadius(earthTrueAnomaly));
+    }
+
+    private Planet at(double daysSinceJ2010, EclipticToEquatorialConversion eclipticToEquatorialConversion,
+                      double L, double R) {
 
         double meanAnomaly = (ANGULAR_SPEED) * (daysSinceJ2010 / Tp) + Angle.ofDeg(epsilon) - Angle.ofDeg(w);
         double trueAnomaly = meanAnomaly + 2 * e * Math.sin(meanAnomaly);
@@ -91,8 +121,6 @@ public enum PlanetModel implements CelestialObjectModel<Planet> {
         double heliocentricLonEcl = Angle.normalizePositive(Math.atan2(Math.sin(l - Angle.ofDeg(omega)) * Math.cos(Angle.ofDeg(i)),
                 Math.cos(l - Angle.ofDeg(omega))) + Angle.ofDeg(omega));
 
-        double L = getEarthLon(daysSinceJ2010);
-        double R = getEarthRadius(daysSinceJ2010);
         double lambda = 0;
 
         double constant = R * Math.sin(heliocentricLonEcl - L);
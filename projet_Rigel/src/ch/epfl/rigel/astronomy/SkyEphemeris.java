@@ -0,0 +1,145 @@
+package ch.epfl.rigel.astronomy;
+
+import ch.epfl.rigel.coordinates.EclipticToEquatorialConversion;
+import ch.epfl.rigel.coordinates.EquatorialToHorizontalConversion;
+import ch.epfl.rigel.coordinates.GeographicCoordinates;
+import ch.epfl.rigel.coordinates.HorizontalCoordinates;
+import ch.epfl.rigel.instrumentation.PipelineMetrics;
+import ch.epfl.rigel.instrumentation.PipelineStage;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static ch.epfl.rigel.astronomy.Epoch.J2010;
+
+/**
+ * Classe représentant les éphémérides du ciel à un moment et à un endroit donnés : le Soleil, la Lune
+ * et les planètes, leurs positions horizontales, et la conversion des positions équatoriales des étoiles.
+ *
+ * Elles ne dépendent pas de la projection, et peuvent donc être partagées par tous les ciels observés
+ * au même moment et au même endroit (lorsque seul le centre de la vue change, par exemple).
+ *
+ * @author Cyril Golaz (301379)
+ * @author Paul McIntyre (302264)
+ */
+
+public final class SkyEphemeris {
+
+    private final ZonedDateTime zonedDateTime;
+    private final GeographicCoordinates geographicCoordinates;
+    private final EquatorialToHorizontalConversion equatorialToHorizontalConversion;
+
+    private final Sun sun;
+    private final HorizontalCoordinates sunHorizontalPosition;
+
+    private final Moon moon;
+    private final HorizontalCoordinates moonHorizontalPosition;
+
+    private final List<Planet> planets;
+    private final HorizontalCoordinates[] planetHorizontalPositions;
+
+    /**
+     * Calcule les éphémérides à l'instant et à la position d'observation donnés
+     *
+     * @param zonedDateTime         l'instant d'observation
+     * @param geographicCoordinates la position d'observation
+     */
+    public SkyEphemeris(ZonedDateTime zonedDateTime, GeographicCoordinates geographicCoordinates) {
+        this.zonedDateTime = zonedDateTime;
+        this.geographicCoordinates = geographicCoordinates;
+        long start = System.nanoTime();
+
+        double days = J2010.daysUntil(zonedDateTime);
+        EclipticToEquatorialConversion eclipticToEquatorialConversion = new EclipticToEquatorialConversion(zonedDateTime);
+        equatorialToHorizontalConversion = new EquatorialToHorizontalConversion(zonedDateTime, geographicCoordinates);
+
+        moon = MoonModel.MOON.at(days, eclipticToEquatorialConversion);
+        moonHorizontalPosition = equatorialToHorizontalConversion.apply(moon.equatorialPos());
+
+        sun = SunModel.SUN.at(days, eclipticToEquatorialConversion);
+        sunHorizontalPosition = equatorialToHorizontalConversion.apply(sun.equatorialPos());
+
+        planets = PlanetModel.allAt(days, eclipticToEquatorialConversion);
+        planetHorizontalPositions = new HorizontalCoordinates[planets.size()];
+        for (int i = 0; i < planets.size(); i++) {
+            planetHorizontalPositions[i] = equatorialToHorizontalConversion.apply(planets.get(i).equatorialPos());
+        }
+        PipelineMetrics.record(PipelineStage.EPHEMERIS, start);
+    }
+
+    /**
+     * @param zonedDateTime         un instant d'observation
+     * @param geographicCoordinates une position d'observation
+     * @return vrai si et seulement si ces éphémérides ont été calculées pour cet instant et cette position
+     */
+    public boolean isFor(ZonedDateTime zonedDateTime, GeographicCoordinates geographicCoordinates) {
+        return this.zonedDateTime.equals(zonedDateTime)
+                && this.geographicCoordinates.lon() == geographicCoordinates.lon()
+                && this.geographicCoordinates.lat() == geographicCoordinates.lat();
+    }
+
+    /**
+     * @return l'instant d'observation
+     */
+    public ZonedDateTime getZonedDateTime() {
+        return zonedDateTime;
+    }
+
+    /**
+     * @return la position d'observation
+     */
+    public GeographicCoordinates getGeographicCoordinates() {
+        return geographicCoordinates;
+    }
+
+    /**
+     * @return la conversion des coordonnées équatoriales en coordonnées horizontales à l'instant
+     * et à la position d'observation
+     */
+    public EquatorialToHorizontalConversion getEquatorialToHorizontalConversion() {
+        return equatorialToHorizontalConversion;
+    }
+
+    /**
+     * @return le Soleil
+     */
+    public Sun getSun() {
+        return sun;
+    }
+
+    /**
+     * @return la position horizontale du Soleil
+     */
+    public HorizontalCoordinates getSunHorizontalPosition() {
+        return sunHorizontalPosition;
+    }
+
+    /**
+     * @return la Lune
+     */
+    public Moon getMoon() {
+        return moon;
+    }
+
+    /**
+     * @return la position horizontale de la Lune
+     */
+    public HorizontalCoordinates getMoonHorizontalPosition() {
+        return moonHorizontalPosition;
+    }
+
+    /**
+     * @return la liste (non modifiable) des planètes autres que la Terre
+     */
+    public List<Planet> getPlanets() {
+        return planets;
+    }
+
+    /**
+     * @param index l'index d'une planète dans getPlanets()
+     * @return la position horizontale de cette planète
+     */
+    public HorizontalCoordinates getPlanetHorizontalPosition(int index) {
+        return planetHorizontalPositions[index];
+    }
+}
@@ -50,9 +50,22 @@ public final class Star extends CelestialObject {
      * @return retourne la température de couleur de l'étoile
      */
     public int colorTemperature() {
+        return colorTemperature(colorIndex);
+    }
+
+    /**
+     * @param colorIndex l'indice de couleur d'une étoile
+     * @return retourne la température de couleur d'une étoile d'indice de couleur donné
+     */
+    static int colorTemperature(double colorIndex) {
         double T = 4600 * (1 / (0.92 * colorIndex + 1.7) + (1 / (0.92 * colorIndex + 0.62)));
         return (int) Math.floor(T);
     }
+
+    float colorIndex() {
+        return colorIndex;
+    }
+
     @Override
     public double distance() {
         return distance;
@@ -2,25 +2,41 @@ package ch.epfl.rigel.astronomy;
 
 
 import ch.epfl.rigel.Preconditions;
+import ch.epfl.rigel.coordinates.EquatorialToPlaneProjection;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
  * Représente un catalogue d'étoiles et d'aastérismes
  *
+ * Les étoiles sont stockées en colonnes (un tableau primitif par attribut),
+ * les instances de Star n'étant construites qu'à la demande.
+ *
  * @author Cyril Golaz (301379)
  * @author Paul McIntyre (302264)
  */
 
 public final class StarCatalogue {
 
-    private final HashMap<Asterism, Integer> asterismsMap = new HashMap<>();
-    private final HashMap<Star, Integer> starsMap = new HashMap<>();
+    private final Map<Asterism, List<Integer>> asterismsMap = new LinkedHashMap<>();
 
+    private final StarColumns columns;
     private final List<Star> stars;
 
+    // Index des étoiles de tous les astérismes, mis bout à bout ; ceux de l'astérisme a
+    // se trouvent entre asterismOffsets[a] (inclus) et asterismOffsets[a + 1] (exclus)
+    private final int[] asterismStarIndices, asterismOffsets;
+
+    // Construit à la première requête spatiale
+    private CelestialSphereIndex sphereIndex;
+
+    // Index des étoiles par magnitude croissante, et rang de chaque étoile dans cet ordre ; construits à la demande
+    private int[] magnitudeOrder, magnitudeRanks;
+
     /**
      * Construit un catalogue des étoiles stars et des astérismes asterisms
      * lève IllegalArgumentException si un astérisme contient une étoile
@@ -31,25 +47,141 @@ public final class StarCatalogue {
      */
 
     public StarCatalogue(List<Star> stars, List<Asterism> asterisms) {
-        this.stars = List.copyOf(stars);
+        this(columnsOf(stars), asterisms);
+    }
+
+    private StarCatalogue(StarColumns columns, List<Asterism> asterisms) {
+        this.columns = columns.trimmedCopy();
+        this.stars = new StarList(this.columns);
 
-        for (int i = 0; i < asterisms.size(); i++) {
-            Preconditions.checkArgument(stars.containsAll(asterisms.get(i).stars()));
-            asterismsMap.put(asterisms.get(i),i);
+        // Seules les étoiles déjà construites peuvent appartenir à un astérisme
+        Map<Star, Integer> starIndices = new IdentityHashMap<>();
+        for (int i = 0; i < this.columns.size(); i++) {
+            Star star = this.columns.constructedStar(i);
+            if (star != null) {
+                starIndices.put(star, i);
+            }
         }
 
-        for (int i = 0; i < stars.size(); i++) {
-            starsMap.put(stars.get(i), i);
+        asterismOffsets = new int[asterisms.size() + 1];
+        for (int a = 0; a < asterisms.size(); a++) {
+            asterismOffsets[a + 1] = asterismOffsets[a] + asterisms.get(a).stars().size();
+        }
+        asterismStarIndices = new int[asterismOffsets[asterisms.size()]];
+
+        for (int a = 0; a < asterisms.size(); a++) {
+            List<Star> asterismStars = asterisms.get(a).stars();
+            for (int i = 0; i < asterismStars.size(); i++) {
+                Integer index = starIndices.get(asterismStars.get(i));
+                Preconditions.checkArgument(index != null);
+                asterismStarIndices[asterismOffsets[a] + i] = index;
+            }
+            asterismsMap.put(asterisms.get(a), new IndexList(asterismStarIndices, asterismOffsets[a], asterismOffsets[a + 1]));
+        }
+    }
+
+    private static StarColumns columnsOf(List<Star> stars) {
+        StarColumns columns = new StarColumns();
+        for (Star star : stars) {
+            columns.add(star);
         }
+        return columns;
     }
 
     /**
-     * @return Retourne Une liste des étoiles du catalogue
+     * @return Retourne Une liste des étoiles du catalogue, dont les éléments sont construits à la demande
      */
     public List<Star> stars() {
         return stars;
     }
 
+    /**
+     * @return Retourne le nombre d'étoiles du catalogue
+     */
+    public int size() {
+        return columns.size();
+    }
+
+    /**
+     * @param index l'index de l'étoile dans le catalogue
+     * @return Retourne l'étoile d'index donné, construite lors du premier accès
+     */
+    public Star star(int index) {
+        return columns.star(index);
+    }
+
+    /**
+     * @param index l'index de l'étoile dans le catalogue
+     * @return Retourne le numéro Hipparcos de l'étoile d'index donné
+     */
+    public int hipparcosId(int index) {
+        return columns.hipparcosId(index);
+    }
+
+    /**
+     * @param index l'index de l'étoile dans le catalogue
+     * @return Retourne le nom de l'étoile d'index donné
+     */
+    public String name(int index) {
+        return columns.name(index);
+    }
+
+    /**
+     * @param index l'index de l'étoile dans le catalogue
+     * @return Retourne l'ascension droite, en radians, de l'étoile d'index donné
+     */
+    public double ra(int index) {
+        return columns.ra(index);
+    }
+
+    /**
+     * @param index l'index de l'étoile dans le catalogue
+     * @return Retourne la déclinaison, en radians, de l'étoile d'index donné
+     */
+    public double dec(int index) {
+        return columns.dec(index);
+    }
+
+    /**
+     * @param index l'index de l'étoile dans le catalogue
+     * @return Retourne la magnitude de l'étoile d'index donné
+     */
+    public double magnitude(int index) {
+        return columns.magnitude(index);
+    }
+
+    /**
+     * @param index l'index de l'étoile dans le catalogue
+     * @return Retourne l'indice de couleur de l'étoile d'index donné
+     */
+    public double colorIndex(int index) {
+        return columns.colorIndex(index);
+    }
+
+    /**
+     * @param index l'index de l'étoile dans le catalogue
+     * @return Retourne la distance de l'étoile d'index donné
+     */
+    public double distance(int index) {
+        return columns.distance(index);
+    }
+
+    /**
+     * @param index l'index de l'étoile dans le catalogue
+     * @return Retourne la vitesse radiale de l'étoile d'index donné
+     */
+    public double rv(int index) {
+        return columns.rv(index);
+    }
+
+    /**
+     * @param index l'index de l'étoile dans le catalogue
+     * @return Retourne la température de couleur de l'étoile d'index donné
+     */
+    public int colorTemperature(int index) {
+        return columns.colorTemperature(index);
+    }
+
     /**
      * @return Retorune l'ensemble des astérismes du catalogue
      */
@@ -64,12 +196,163 @@ public final class StarCatalogue {
      * @return Retounre la liste des index, dans le catalogue, des étoiles constituant l'astérisme asterism
      */
     public List<Integer> asterismIndices(Asterism asterism) {
-        Preconditions.checkArgument((asterisms().contains(asterism)));
-        List<Integer> list = new ArrayList<>();
-        for (Star star : asterism.stars()) {
-            list.add(starsMap.get(star));
+        List<Integer> indices = asterismsMap.get(asterism);
+        Preconditions.checkArgument(indices != null);
+        return indices;
+    }
+
+    /**
+     * Projette dans le plan les positions des étoiles d'index compris entre from (inclus) et to (exclus),
+     * à partir des vecteurs unitaires calculés à la construction du catalogue
+     *
+     * @param projection la projection à utiliser
+     * @param positions  le tableau dans lequel écrire les positions : l'abscisse de l'étoile i à l'index 2i,
+     *                   son ordonnée à l'index 2i + 1
+     * @param from       l'index de la première étoile à projeter
+     * @param to         l'index suivant celui de la dernière étoile à projeter
+     */
+    void project(EquatorialToPlaneProjection projection, double[] positions, int from, int to) {
+        // La troisième composante du vecteur unitaire est sin(dec)
+        projection.apply(columns.unitXColumn(), columns.unitYColumn(), columns.sinDecColumn(), positions, from, to);
+    }
+
+    /**
+     * Projette dans le plan les positions des étoiles dont les index se trouvent dans indices,
+     * entre les positions from (incluse) et to (exclue)
+     *
+     * @param projection la projection à utiliser
+     * @param positions  le tableau dans lequel écrire les positions, indexé comme ci-dessus
+     * @param indices    les index des étoiles à projeter
+     * @param from       la première position à lire dans indices
+     * @param to         la position suivant la dernière position à lire dans indices
+     */
+    void project(EquatorialToPlaneProjection projection, double[] positions, int[] indices, int from, int to) {
+        projection.apply(columns.unitXColumn(), columns.unitYColumn(), columns.sinDecColumn(), positions, indices, from, to);
+    }
+
+    /**
+     * Projette dans le plan les positions de toutes les étoiles appartenant à un astérisme
+     *
+     * @param projection la projection à utiliser
+     * @param positions  le tableau dans lequel écrire les positions, indexé comme ci-dessus
+     */
+    void projectAsterisms(EquatorialToPlaneProjection projection, double[] positions) {
+        project(projection, positions, asterismStarIndices, 0, asterismStarIndices.length);
+    }
+
+    /**
+     * Retourne l'index des étoiles du catalogue selon leur position sur la sphère céleste,
+     * construit lors du premier appel
+     *
+     * @return Retourne l'index spatial des étoiles du catalogue
+     */
+    public synchronized CelestialSphereIndex sphereIndex() {
+        if (sphereIndex == null) {
+            sphereIndex = new CelestialSphereIndex(columns);
         }
-        return list;
+        return sphereIndex;
+    }
+
+    /**
+     * Les étoiles sont classées par magnitude croissante (de la plus brillante à la moins brillante),
+     * les étoiles de même magnitude restant dans l'ordre du catalogue. Ce classement est établi lors
+     * du premier appel à l'une des méthodes qui l'utilisent ; les index du catalogue, et donc ceux
+     * des astérismes, restent inchangés.
+     *
+     * @param rank le rang d'une étoile dans le classement par magnitude
+     * @return Retourne l'index, dans le catalogue, de l'étoile de rang donné
+     */
+    public int starIndexByMagnitude(int rank) {
+        return magnitudeOrder()[rank];
+    }
+
+    /**
+     * @param index l'index d'une étoile du catalogue
+     * @return Retourne le rang de l'étoile dans le classement par magnitude
+     * @see #starIndexByMagnitude(int)
+     */
+    public int magnitudeRank(int index) {
+        magnitudeOrder();
+        return magnitudeRanks[index];
+    }
+
+    /**
+     * @param limitingMagnitude la magnitude limite
+     * @return Retourne le nombre d'étoiles de magnitude inférieure ou égale à la magnitude limite, qui sont
+     * celles de rang strictement inférieur à ce nombre dans le classement par magnitude
+     * @see #starIndexByMagnitude(int)
+     */
+    public int brighterStarCount(double limitingMagnitude) {
+        int[] order = magnitudeOrder();
+        int low = 0, high = order.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (columns.magnitude(order[middle]) <= limitingMagnitude) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private synchronized int[] magnitudeOrder() {
+        if (magnitudeOrder == null) {
+            // Clé triable : magnitude (bits du float rendus ordonnés comme des entiers signés), puis index
+            long[] keys = new long[size()];
+            for (int i = 0; i < keys.length; i++) {
+                int bits = Float.floatToIntBits(columns.magnitude(i));
+                bits ^= (bits >> 31) & Integer.MAX_VALUE;
+                keys[i] = ((long) bits << 32) | i;
+            }
+            Arrays.sort(keys);
+
+            int[] ranks = new int[keys.length];
+            int[] order = new int[keys.length];
+            for (int rank = 0; rank < keys.length; rank++) {
+                order[rank] = (int) keys[rank];
+                ranks[order[rank]] = rank;
+            }
+            magnitudeRanks = ranks;
+            magnitudeOrder = order;
+        }
+        return magnitudeOrder;
+    }
+
+    /**
+     * @return Retourne le nombre d'astérismes du catalogue, numérotés dans l'ordre d'itération de asterisms()
+     */
+    public int asterismCount() {
+        return asterismOffsets.length - 1;
+    }
+
+    /**
+     * Les index des étoiles de l'astérisme numéro asterism sont donnés par asterismStarIndex(position),
+     * pour toute position comprise entre asterismStart(asterism) (inclus) et asterismEnd(asterism) (exclus).
+     *
+     * @param asterism le numéro de l'astérisme
+     * @return Retourne la première position des index de l'astérisme
+     */
+    public int asterismStart(int asterism) {
+        return asterismOffsets[asterism];
+    }
+
+    /**
+     * @param asterism le numéro de l'astérisme
+     * @return Retourne la position suivant la dernière position des index de l'astérisme
+     * @see #asterismStart(int)
+     */
+    public int asterismEnd(int asterism) {
+        return asterismOffsets[asterism + 1];
+    }
+
+    /**
+     * @param position une position comprise entre asterismStart et asterismEnd d'un astérisme
+     * @return Retourne l'index, dans le catalogue, de l'étoile de l'astérisme à cette position
+     * @see #asterismStart(int)
+     */
+    public int asterismStarIndex(int position) {
+        return asterismStarIndices[position];
     }
 
     /**
@@ -77,6 +360,20 @@ public final class StarCatalogue {
      */
     public interface Loader {
         void load(InputStream inputStream, Builder builder) throws IOException;
+
+        /**
+         * Charge le fichier donné dans le bâtisseur. Par défaut, le fichier est simplement lu comme un flot,
+         * mais un chargeur peut par exemple le projeter en mémoire.
+         *
+         * @param path    le chemin du fichier
+         * @param builder le bâtisseur
+         * @throws IOException en cas d'erreur d'entrée/sortie
+         */
+        default void load(Path path, Builder builder) throws IOException {
+            try (InputStream inputStream = Files.newInputStream(path)) {
+                load(inputStream, builder);
+            }
+        }
     }
 
     /**
@@ -84,15 +381,19 @@ public final class StarCatalogue {
      */
     public static class Builder {
 
+        private final StarColumns columns;
         private final List<Star> stars;
         private final List<Asterism> asterisms;
+        private final List<Integer> unresolvedHipparcosIds;
 
         /**
          * Constructeur qui s'assure que le catalogue est vide au départ
          */
         public Builder() {
-            stars = new ArrayList<>();
+            columns = new StarColumns();
+            stars = new StarList(columns);
             asterisms = new ArrayList<>();
+            unresolvedHipparcosIds = new ArrayList<>();
         }
 
         /**
@@ -102,7 +403,28 @@ public final class StarCatalogue {
          * @return le bâtisseur
          */
         public Builder addStar(Star star) {
-            stars.add(star);
+            columns.add(star);
+            return this;
+        }
+
+        /**
+         * Ajoute au catalogue en construction une étoile décrite par ses attributs,
+         * sans construire d'instance de Star
+         *
+         * @param hipparcosId le numéro Hipparcos de l'étoile
+         * @param name        le nom de l'étoile
+         * @param ra          l'ascension droite de l'étoile, en radians
+         * @param dec         la déclinaison de l'étoile, en radians
+         * @param magnitude   la magnitude de l'étoile
+         * @param colorIndex  l'indice de couleur de l'étoile
+         * @param distance    la distance de l'étoile
+         * @param rv          la vitesse radiale de l'étoile
+         * @return le bâtisseur
+         * @throws IllegalArgumentException si l'un des attributs n'est pas valide pour une étoile
+         */
+        public Builder addStar(int hipparcosId, String name, double ra, double dec, float magnitude,
+                               float colorIndex, float distance, float rv) {
+            columns.add(hipparcosId, name, ra, dec, magnitude, colorIndex, distance, rv);
             return this;
         }
 
@@ -110,7 +432,47 @@ public final class StarCatalogue {
          * @return Retourne une vue non modifiable sur les étoiles du catalogue en construction
          */
         public List<Star> stars() {
-            return Collections.unmodifiableList(stars);
+            return stars;
+        }
+
+        /**
+         * Nous permet de retrouver une étoile du catalogue en construction par son numéro Hipparcos,
+         * en temps constant
+         *
+         * @param hipparcosId le numéro Hipparcos
+         * @return Retourne l'index de la (première) étoile ayant ce numéro Hipparcos, ou -1 s'il n'y en a pas
+         */
+        public int starIndex(int hipparcosId) {
+            return columns.indexOfHipparcosId(hipparcosId);
+        }
+
+        /**
+         * Ajoute au catalogue en construction l'astérisme formé des étoiles de numéros Hipparcos donnés.
+         * Les numéros ne correspondant à aucune étoile sont ignorés et mémorisés.
+         *
+         * @param hipparcosIds les numéros Hipparcos des étoiles de l'astérisme
+         * @return le bâtisseur
+         * @throws IllegalArgumentException si aucun des numéros ne correspond à une étoile
+         */
+        public Builder addAsterism(int... hipparcosIds) {
+            List<Star> asterismStars = new ArrayList<>(hipparcosIds.length);
+            for (int hipparcosId : hipparcosIds) {
+                int index = starIndex(hipparcosId);
+                if (index >= 0) {
+                    asterismStars.add(stars.get(index));
+                } else {
+                    unresolvedHipparcosIds.add(hipparcosId);
+                }
+            }
+            return addAsterism(new Asterism(asterismStars));
+        }
+
+        /**
+         * @return Retourne la liste non modifiable des numéros Hipparcos qui, lors de l'ajout d'astérismes,
+         * ne correspondaient à aucune étoile du catalogue en construction
+         */
+        public List<Integer> unresolvedHipparcosIds() {
+            return Collections.unmodifiableList(unresolvedHipparcosIds);
         }
 
         /**
@@ -145,15 +507,78 @@ public final class StarCatalogue {
             return this;
         }
 
+        /**
+         * Ajoute au catalogue, via loader, les étoiles et astérismes qu'il obtient depuis le fichier donné
+         * et retourne le bâtisseur. Lève IOException en cas d'erreur d'entrée/sortie
+         *
+         * @param path   le chemin du fichier
+         * @param loader le Loader
+         * @return le bâtisseur
+         * @throws IOException Lève IOException en cas d'erreur d'entrée/sortie
+         */
+        public Builder loadFrom(Path path, Loader loader) throws IOException {
+            loader.load(path, this);
+            return this;
+        }
+
         /**
          * @return Retourne le catalogue contenant les étoiles et astérismes ajoutés lors de la construction du catalogue
          */
         public StarCatalogue build() {
-            return new StarCatalogue(stars, asterisms);
+            return new StarCatalogue(columns, asterisms);
         }
 
     }
 
+    /**
+     * Vue non modifiable sur un tableau d'index, calculé une fois pour toutes
+     */
+    private static final class IndexList extends AbstractList<Integer> implements RandomAccess {
+
+        private final int[] indices;
+        private final int from, to;
+
+        private IndexList(int[] indices, int from, int to) {
+            this.indices = indices;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Integer get(int index) {
+            Objects.checkIndex(index, size());
+            return indices[from + index];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    /**
+     * Vue non modifiable sur des étoiles stockées en colonnes, construites à la demande
+     */
+    private static final class StarList extends AbstractList<Star> implements RandomAccess {
+
+        private final StarColumns columns;
+
+        private StarList(StarColumns columns) {
+            this.columns = columns;
+        }
+
+        @Override
+        public Star get(int index) {
+            Objects.checkIndex(index, columns.size());
+            return columns.star(index);
+        }
+
+        @Override
+        public int size() {
+            return columns.size();
+        }
+    }
+
 }
 
 
@@ -0,0 +1,254 @@
+package ch.epfl.rigel.astronomy;
+
+import ch.epfl.rigel.Preconditions;
+import ch.epfl.rigel.coordinates.EquatorialCoordinates;
+import ch.epfl.rigel.math.Angle;
+import ch.epfl.rigel.math.ClosedInterval;
+import ch.epfl.rigel.math.RightOpenInterval;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stockage en colonnes (tableaux primitifs) des étoiles d'un catalogue.
+ * Les instances de Star ne sont créées qu'à la demande, puis conservées.
+ *
+ * @author Cyril Golaz (301379)
+ * @author Paul McIntyre (302264)
+ */
+
+final class StarColumns {
+
+    private final static RightOpenInterval RA_INTERVAL = RightOpenInterval.of(0, Angle.TAU);
+    private final static ClosedInterval DEC_INTERVAL = ClosedInterval.symmetric(Math.PI);
+    private final static ClosedInterval COLOR_INDEX_INTERVAL = ClosedInterval.of(-0.5, 5.5);
+    private final static int INITIAL_CAPACITY = 1024;
+
+    private int size;
+    private int[] hipparcosId;
+    private double[] ra, dec;
+    private float[] magnitude, colorIndex, distance, rv;
+    private String[] name;
+    private Star[] stars;
+    private double[] sinDec, unitX, unitY;
+    private int[] colorTemperature;
+    private HipparcosIndex hipparcosIndex = new HipparcosIndex();
+
+    private Map<String, String> nameTable = new HashMap<>();
+
+    /**
+     * Construit un stockage vide
+     */
+    StarColumns() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private StarColumns(int capacity) {
+        hipparcosId = new int[capacity];
+        ra = new double[capacity];
+        dec = new double[capacity];
+        magnitude = new float[capacity];
+        colorIndex = new float[capacity];
+        distance = new float[capacity];
+        rv = new float[capacity];
+        name = new String[capacity];
+        stars = new Star[capacity];
+    }
+
+    /**
+     * Ajoute une étoile déjà construite, qui sera retournée telle quelle par star
+     *
+     * @param star l'étoile à ajouter
+     */
+    void add(Star star) {
+        EquatorialCoordinates equatorialPos = star.equatorialPos();
+        add(star.hipparcosId(), star.name(), equatorialPos.ra(), equatorialPos.dec(), (float) star.magnitude(),
+                star.colorIndex(), (float) star.distance(), (float) star.rv());
+        stars[size - 1] = star;
+    }
+
+    /**
+     * Ajoute une étoile à partir de ses attributs, sans construire d'instance de Star
+     *
+     * @throws IllegalArgumentException si l'un des attributs n'est pas valide pour une étoile
+     */
+    void add(int hipparcosId, String name, double ra, double dec, float magnitude, float colorIndex,
+             float distance, float rv) {
+        Preconditions.checkArgument(hipparcosId >= 0);
+        Preconditions.checkInInterval(RA_INTERVAL, ra);
+        Preconditions.checkInInterval(DEC_INTERVAL, dec);
+        Preconditions.checkInInterval(COLOR_INDEX_INTERVAL, colorIndex);
+
+        if (size == this.ra.length) {
+            grow();
+        }
+        this.hipparcosId[size] = hipparcosId;
+        this.name[size] = nameTable.computeIfAbsent(name, n -> n);
+        this.ra[size] = ra;
+        this.dec[size] = dec;
+        this.magnitude[size] = magnitude;
+        this.colorIndex[size] = colorIndex;
+        this.distance[size] = distance;
+        this.rv[size] = rv;
+        hipparcosIndex.putIfAbsent(hipparcosId, size);
+        size += 1;
+    }
+
+    private void grow() {
+        int capacity = Math.max(INITIAL_CAPACITY, 2 * ra.length);
+        hipparcosId = Arrays.copyOf(hipparcosId, capacity);
+        ra = Arrays.copyOf(ra, capacity);
+        dec = Arrays.copyOf(dec, capacity);
+        magnitude = Arrays.copyOf(magnitude, capacity);
+        colorIndex = Arrays.copyOf(colorIndex, capacity);
+        distance = Arrays.copyOf(distance, capacity);
+        rv = Arrays.copyOf(rv, capacity);
+        name = Arrays.copyOf(name, capacity);
+        stars = Arrays.copyOf(stars, capacity);
+    }
+
+    /**
+     * @return une copie dont les tableaux ont exactement la taille du nombre d'étoiles, et dont
+     * les sinus des déclinaisons, les vecteurs unitaires des positions ainsi que les températures
+     * de couleur sont calculés
+     */
+    StarColumns trimmedCopy() {
+        StarColumns copy = new StarColumns(0);
+        copy.size = size;
+        copy.hipparcosId = Arrays.copyOf(hipparcosId, size);
+        copy.ra = Arrays.copyOf(ra, size);
+        copy.dec = Arrays.copyOf(dec, size);
+        copy.magnitude = Arrays.copyOf(magnitude, size);
+        copy.colorIndex = Arrays.copyOf(colorIndex, size);
+        copy.distance = Arrays.copyOf(distance, size);
+        copy.rv = Arrays.copyOf(rv, size);
+        copy.name = Arrays.copyOf(name, size);
+        copy.sinDec = new double[size];
+        copy.unitX = new double[size];
+        copy.unitY = new double[size];
+        copy.colorTemperature = new int[size];
+        for (int i = 0; i < size; i++) {
+            double cosDec = Math.cos(dec[i]);
+            copy.sinDec[i] = Math.sin(dec[i]);
+            copy.unitX[i] = cosDec * Math.cos(ra[i]);
+            copy.unitY[i] = cosDec * Math.sin(ra[i]);
+            copy.colorTemperature[i] = Star.colorTemperature(colorIndex[i]);
+        }
+        synchronized (this) {
+            copy.stars = Arrays.copyOf(stars, size);
+        }
+        copy.hipparcosIndex = hipparcosIndex.copy();
+        copy.nameTable = null;
+        return copy;
+    }
+
+    /**
+     * @return le nombre d'étoiles
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Retourne l'étoile d'index donné, en la construisant lors du premier appel
+     *
+     * @param index l'index de l'étoile
+     * @return l'étoile d'index donné, toujours la même instance pour un même index
+     */
+    synchronized Star star(int index) {
+        Star star = stars[index];
+        if (star == null) {
+            star = new Star(hipparcosId[index], name[index], EquatorialCoordinates.of(ra[index], dec[index]),
+                    magnitude[index], colorIndex[index], distance[index], rv[index]);
+            stars[index] = star;
+        }
+        return star;
+    }
+
+    /**
+     * @param index l'index de l'étoile
+     * @return l'étoile d'index donné si elle a déjà été construite, null sinon
+     */
+    synchronized Star constructedStar(int index) {
+        return stars[index];
+    }
+
+    /**
+     * @param hipparcosId un numéro Hipparcos
+     * @return l'index de la première étoile ajoutée ayant ce numéro Hipparcos, ou -1 s'il n'y en a pas
+     */
+    int indexOfHipparcosId(int hipparcosId) {
+        return hipparcosIndex.indexOf(hipparcosId);
+    }
+
+    /**
+     * @return le tableau des ascensions droites, à ne pas modifier
+     */
+    double[] raColumn() {
+        return ra;
+    }
+
+    /**
+     * @return le tableau des sinus des déclinaisons, à ne pas modifier, ou null si la copie n'est pas finale
+     */
+    double[] sinDecColumn() {
+        return sinDec;
+    }
+
+    /**
+     * @return le tableau des premières composantes (cos(dec)cos(ra)) des vecteurs unitaires des positions,
+     * à ne pas modifier, ou null si la copie n'est pas finale
+     */
+    double[] unitXColumn() {
+        return unitX;
+    }
+
+    /**
+     * @return le tableau des deuxièmes composantes (cos(dec)sin(ra)) des vecteurs unitaires des positions,
+     * à ne pas modifier, ou null si la copie n'est pas finale
+     */
+    double[] unitYColumn() {
+        return unitY;
+    }
+
+    int hipparcosId(int index) {
+        return hipparcosId[index];
+    }
+
+    String name(int index) {
+        return name[index];
+    }
+
+    double ra(int index) {
+        return ra[index];
+    }
+
+    double dec(int index) {
+        return dec[index];
+    }
+
+    float magnitude(int index) {
+        return magnitude[index];
+    }
+
+    float colorIndex(int index) {
+        return colorIndex[index];
+    }
+
+    /**
+     * @param index l'index de l'étoile
+     * @return la température de couleur de l'étoile, calculée lors de la copie finale
+     */
+    int colorTemperature(int index) {
+        return colorTemperature[index];
+    }
+
+    float distance(int index) {
+        return distance[index];
+    }
+
+    float rv(int index) {
+        return rv[index];
+    }
+}
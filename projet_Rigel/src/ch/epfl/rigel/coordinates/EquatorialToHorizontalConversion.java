@@ -31,6 +31,18 @@ public final class EquatorialToHorizontalConversion implements Function<Equatori
         siderealTime = SiderealTime.local(when, where);
     }
 
+    double siderealTime() {
+        return siderealTime;
+    }
+
+    double sinLat() {
+        return sinLat;
+    }
+
+    double cosLat() {
+        return cosLat;
+    }
+
     @Override
     public HorizontalCoordinates apply(EquatorialCoordinates equ) {
         double delta = equ.dec();
@@ -0,0 +1,114 @@
+package ch.epfl.rigel.coordinates;
+
+import ch.epfl.rigel.math.Angle;
+
+/**
+ * Projection directe de positions équatoriales dans le plan, équivalente à la composition
+ * d'une conversion équatoriale-horizontale et d'une projection stéréographique.
+ *
+ * Les deux changements de repère sont regroupés en une seule matrice de rotation 3x3, appliquée
+ * aux vecteurs unitaires des positions équatoriales, ce qui réduit la projection de chaque
+ * position à quelques opérations arithmétiques.
+ *
+ * @author Cyril Golaz (301379)
+ * @author Paul McIntyre (302264)
+ */
+
+public final class EquatorialToPlaneProjection {
+
+    // Lignes de la matrice : p (numérateur de x), q (numérateur de y), r (tel que le dénominateur vaille 1 + r)
+    private final double px, py, pz, qx, qy, qz, rx, ry, rz;
+
+    /**
+     * Construit la projection équivalente à la conversion puis à la projection données
+     *
+     * @param conversion la conversion des coordonnées équatoriales en coordonnées horizontales
+     * @param projection la projection stéréographique des coordonnées horizontales
+     */
+    public EquatorialToPlaneProjection(EquatorialToHorizontalConversion conversion, StereographicProjection projection) {
+        double cosTheta = Math.cos(conversion.siderealTime()), sinTheta = Math.sin(conversion.siderealTime());
+        double cosLat = conversion.cosLat(), sinLat = conversion.sinLat();
+
+        // Repère horizontal : nord, est, zénith
+        double nx = -sinLat * cosTheta, ny = -sinLat * sinTheta, nz = cosLat;
+        double ex = -sinTheta, ey = cosTheta, ez = 0;
+        double ux = cosLat * cosTheta, uy = cosLat * sinTheta, uz = sinLat;
+
+        double cosLambda0 = Math.cos(projection.centerLon()), sinLambda0 = Math.sin(projection.centerLon());
+        double cosPhi1 = projection.cosCenterLat(), sinPhi1 = projection.sinCenterLat();
+
+        // Composante horizontale dans la direction de l'azimut du centre
+        double cx = cosLambda0 * nx + sinLambda0 * ex;
+        double cy = cosLambda0 * ny + sinLambda0 * ey;
+        double cz = cosLambda0 * nz + sinLambda0 * ez;
+
+        px = cosLambda0 * ex - sinLambda0 * nx;
+        py = cosLambda0 * ey - sinLambda0 * ny;
+        pz = cosLambda0 * ez - sinLambda0 * nz;
+
+        qx = cosPhi1 * ux - sinPhi1 * cx;
+        qy = cosPhi1 * uy - sinPhi1 * cy;
+        qz = cosPhi1 * uz - sinPhi1 * cz;
+
+        rx = sinPhi1 * ux + cosPhi1 * cx;
+        ry = sinPhi1 * uy + cosPhi1 * cy;
+        rz = sinPhi1 * uz + cosPhi1 * cz;
+    }
+
+    /**
+     * Projette dans le plan un ensemble de positions équatoriales, données par les composantes
+     * de leurs vecteurs unitaires (cos(dec)cos(ra), cos(dec)sin(ra), sin(dec)), sans allocation.
+     *
+     * @param x         les premières composantes des vecteurs unitaires
+     * @param y         les deuxièmes composantes des vecteurs unitaires
+     * @param z         les troisièmes composantes des vecteurs unitaires
+     * @param positions le tableau dans lequel écrire les positions projetées : l'abscisse de la position i
+     *                  à l'index 2i, son ordonnée à l'index 2i + 1
+     * @param from      l'index de la première position à projeter (inclus)
+     * @param to        l'index de la dernière position à projeter (exclus)
+     */
+    public void apply(double[] x, double[] y, double[] z, double[] positions, int from, int to) {
+        for (int i = from; i < to; i++) {
+            double d = 1 / (1 + rx * x[i] + ry * y[i] + rz * z[i]);
+            positions[2 * i] = d * (px * x[i] + py * y[i] + pz * z[i]);
+            positions[2 * i + 1] = d * (qx * x[i] + qy * y[i] + qz * z[i]);
+        }
+    }
+
+    /**
+     * Projette dans le plan les positions équatoriales d'index donnés, comme la méthode ci-dessus
+     *
+     * @param x         les premières composantes des vecteurs unitaires
+     * @param y         les deuxièmes composantes des vecteurs unitaires
+     * @param z         les troisièmes composantes des vecteurs unitaires
+     * @param positions le tableau dans lequel écrire les positions projetées, indexé comme ci-dessus
+     * @param indices   les index des positions à projeter
+     * @param from      la première position à lire dans indices (incluse)
+     * @param to        la dernière position à lire dans indices (exclue)
+     */
+    public void apply(double[] x, double[] y, double[] z, double[] positions, int[] indices, int from, int to) {
+        for (int k = from; k < to; k++) {
+            int i = indices[k];
+            double d = 1 / (1 + rx * x[i] + ry * y[i] + rz * z[i]);
+            positions[2 * i] = d * (px * x[i] + py * y[i] + pz * z[i]);
+            positions[2 * i + 1] = d * (qx * x[i] + qy * y[i] + qz * z[i]);
+        }
+    }
+
+    /**
+     * @return les coordonnées équatoriales du centre de la projection (direction projetée à l'origine du plan)
+     */
+    public EquatorialCoordinates center() {
+        return EquatorialCoordinates.of(Angle.normalizePositive(Math.atan2(ry, rx)), Math.asin(Math.max(-1, Math.min(1, rz))));
+    }
+
+    @Override
+    public final boolean equals(Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public final int hashCode() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -88,6 +88,18 @@ public final class StereographicProjection implements Function<HorizontalCoordin
 
     }
 
+    double centerLon() {
+        return lambda0;
+    }
+
+    double sinCenterLat() {
+        return sinPhi1;
+    }
+
+    double cosCenterLat() {
+        return cosPhi1;
+    }
+
     @Override
     public CartesianCoordinates apply(HorizontalCoordinates azAlt) {
         double phi = azAlt.lat();
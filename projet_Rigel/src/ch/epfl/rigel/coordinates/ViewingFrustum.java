@@ -0,0 +1,99 @@
+package ch.epfl.rigel.coordinates;
+
+import ch.epfl.rigel.Preconditions;
+import ch.epfl.rigel.math.Angle;
+
+import java.util.Locale;
+
+/**
+ * Portion visible du plan de projection : rectangle centré sur le centre de la projection stéréographique,
+ * dont la largeur correspond au champ de vue et dont les proportions sont celles du canvas.
+ *
+ * Le rectangle est élargi d'une petite marge, afin de conserver les objets qui débordent du bord du canvas.
+ *
+ * @author Cyril Golaz (301379)
+ * @author Paul McIntyre (302264)
+ */
+
+public final class ViewingFrustum {
+
+    private final static double MARGIN = 0.05;
+
+    private final double fieldOfViewDeg, aspectRatio;
+    private final double halfWidth, halfHeight;
+
+    /**
+     * Construit la portion visible du plan pour le champ de vue et les proportions donnés
+     *
+     * @param fieldOfViewDeg le champ de vue horizontal, en degrés
+     * @param aspectRatio    le rapport entre la largeur et la hauteur du canvas
+     * @throws IllegalArgumentException si le champ de vue n'est pas compris entre 0 et 360 degrés (exclus),
+     *                                  ou si le rapport n'est pas strictement positif et fini
+     */
+    public ViewingFrustum(double fieldOfViewDeg, double aspectRatio) {
+        Preconditions.checkArgument(fieldOfViewDeg > 0 && fieldOfViewDeg < 360);
+        Preconditions.checkArgument(aspectRatio > 0 && Double.isFinite(aspectRatio));
+
+        this.fieldOfViewDeg = fieldOfViewDeg;
+        this.aspectRatio = aspectRatio;
+
+        // Demi-largeur de la projection du champ de vue, soit applyToAngle(champ de vue) / 2
+        halfWidth = (1 + MARGIN) * Math.tan(Angle.ofDeg(fieldOfViewDeg) / 4);
+        halfHeight = halfWidth / aspectRatio;
+    }
+
+    /**
+     * @return le champ de vue horizontal, en degrés
+     */
+    public double fieldOfViewDeg() {
+        return fieldOfViewDeg;
+    }
+
+    /**
+     * @return le rapport entre la largeur et la hauteur du canvas
+     */
+    public double aspectRatio() {
+        return aspectRatio;
+    }
+
+    /**
+     * @param x l'abscisse d'un point du plan
+     * @param y l'ordonnée d'un point du plan
+     * @return vrai si et seulement si le point se trouve dans la portion visible du plan
+     */
+    public boolean contains(double x, double y) {
+        return Math.abs(x) <= halfWidth && Math.abs(y) <= halfHeight;
+    }
+
+    /**
+     * @param other une autre portion du plan
+     * @return vrai si et seulement si cette portion du plan contient entièrement l'autre
+     */
+    public boolean covers(ViewingFrustum other) {
+        return halfWidth >= other.halfWidth && halfHeight >= other.halfHeight;
+    }
+
+    /**
+     * @return la distance angulaire maximale, en radians, entre le centre de projection et un point
+     * de la portion visible du plan (la projection d'un point à une distance rho du centre du plan
+     * se trouve à une distance angulaire 2 atan(rho) du centre de projection)
+     */
+    public double angularRadius() {
+        return 2 * Math.atan(Math.hypot(halfWidth, halfHeight));
+    }
+
+    @Override
+    public final boolean equals(Object o) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public final int hashCode() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "ViewingFrustum: champ de vue %.1f°, proportions %.3f", fieldOfViewDeg, aspectRatio);
+    }
+}
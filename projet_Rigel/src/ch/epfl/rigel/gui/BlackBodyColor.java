@@ -6,25 +6,23 @@ import ch.epfl.rigel.math.ClosedInterval;
 import javafx.scene.paint.Color;
 
 import java.io.*;
-import java.nio.charset.Charset;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Classe utilisée afin d'obtenir la couleur d'un corps noir , étant donné sa température
  *
+ * Les couleurs sont lues une seule fois, lors de la première utilisation, dans une table indexée par
+ * (température - 1000) / 100 ; l'initialisation de la classe interne qui la contient est thread-safe.
+ *
  * @author Cyril Golaz (301379)
  * @author Paul McIntyre (302264)
  */
 
 public class BlackBodyColor {
 
+    private final static int MIN_TEMPERATURE = 1000, MAX_TEMPERATURE = 40000, TEMPERATURE_STEP = 100;
 
-    private final static ClosedInterval CHECKED_TEMPERATURE = ClosedInterval.of(1000, 40000);
-
-    private static boolean isLoaded = false;
-
-    private final static Map<Integer, String> TEMPERATURE_TO_COLOR = new HashMap<>();
+    private final static ClosedInterval CHECKED_TEMPERATURE = ClosedInterval.of(MIN_TEMPERATURE, MAX_TEMPERATURE);
 
     private BlackBodyColor() {
     }
@@ -33,51 +31,50 @@ public class BlackBodyColor {
      * Nous permet d'obtenir la couleur du corps, en focntion de sa température
      *
      * @param KelvinTemperature la température du corps, exprimée en degrés Kelvin
-     * @return la couleur correspondant à la température donnée
+     * @return la couleur correspondant à la température donnée, toujours la même instance pour une même
+     * température arrondie à la centaine
      */
 
     public static Color colorForTemperature(int KelvinTemperature) {
         KelvinTemperature = roundTemperature(KelvinTemperature);
+        return ColorTable.COLORS[(KelvinTemperature - MIN_TEMPERATURE) / TEMPERATURE_STEP];
+    }
+
+    private static int roundTemperature(int temperature) {
+        Preconditions.checkInInterval(CHECKED_TEMPERATURE, temperature);
+        if (temperature % 100 != 0) {
+            if (temperature % 100 > 50) {
+                temperature += 100 - (temperature % 100);
+            } else temperature -= temperature % 100;
+        }
+        return temperature;
+    }
 
-        if (!isLoaded) {
-            try {
+    /**
+     * Table des couleurs, chargée lors de l'initialisation de la classe (donc une seule fois, au premier accès)
+     */
+    private static final class ColorTable {
 
-                InputStream stream = BlackBodyColor.class.getResourceAsStream("/bbr_color.txt");
-                InputStreamReader inputStreamReader = new InputStreamReader(stream, Charset.defaultCharset());
-                BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
+        private final static Color[] COLORS = load();
 
-                String temperatureString = "";
-                String color = "";
-                String toRead = "";
+        private static Color[] load() {
+            Color[] colors = new Color[(MAX_TEMPERATURE - MIN_TEMPERATURE) / TEMPERATURE_STEP + 1];
 
-                while ((toRead = bufferedReader.readLine()) != null) {
+            try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(
+                    BlackBodyColor.class.getResourceAsStream("/bbr_color.txt"), StandardCharsets.US_ASCII))) {
 
-                    if (toRead.charAt(0) != '#') {
-                        if (toRead.substring(10, 15).equalsIgnoreCase("10deg")) {
-                            if (toRead.charAt(1) == ' ') {
-                                temperatureString = toRead.substring(2, 6);
-                            } else temperatureString = toRead.substring(1, 6);
-                            color = toRead.substring(80, 87);
-                            TEMPERATURE_TO_COLOR.put(Integer.parseInt(temperatureString), color);
-                        }
+                String toRead;
+                while ((toRead = bufferedReader.readLine()) != null) {
+                    if (toRead.charAt(0) != '#' && toRead.substring(10, 15).equalsIgnoreCase("10deg")) {
+                        int temperature = Integer.parseInt(toRead.substring(1, 6).trim());
+                        colors[(temperature - MIN_TEMPERATURE) / TEMPERATURE_STEP] = Color.web(toRead.substring(80, 87));
                     }
                 }
 
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
-            isLoaded = true;
-        }
-        return Color.web(TEMPERATURE_TO_COLOR.get(KelvinTemperature));
-    }
-
-    private static int roundTemperature(int temperature) {
-        Preconditions.checkInInterval(CHECKED_TEMPERATURE, temperature);
-        if (temperature % 100 != 0) {
-            if (temperature % 100 > 50) {
-                temperature += 100 - (temperature % 100);
-            } else temperature -= temperature % 100;
+            return colors;
         }
-        return temperature;
     }
 }
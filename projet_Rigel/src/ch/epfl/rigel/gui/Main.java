@@ -29,6 +29,10 @@ import javafx.util.converter.NumberStringConverter;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.ZoneId;
@@ -52,6 +56,11 @@ public class Main extends Application {
 
     private static boolean hasMaped = false;
 
+    private final static String CATALOGUE_PROPERTY = "rigel.catalogue";
+
+    // Magnitude limite des étoiles visibles pour le champ de vue initial, qui montre tout le catalogue fourni
+    private final static double REFERENCE_FIELD_OF_VIEW_DEG = 100, REFERENCE_LIMITING_MAGNITUDE = 6.5;
+
 
     public static void main(String[] args) {
         launch(args);
@@ -80,6 +89,13 @@ public class Main extends Application {
 
         viewingParametersBean.setFieldOfViewDeg(100);
 
+        // Plus le champ de vue est large, moins les étoiles faibles sont montrées : la magnitude limite diminue
+        // d'environ 1.2 lorsque le champ de vue double, ce qui compense en partie l'augmentation de l'aire visible.
+        // Elle est arrondie à la demi-magnitude et n'est modifiée que si elle change, car le ciel est alors recalculé
+        viewingParametersBean.setLimitingMagnitude(limitingMagnitude(viewingParametersBean.getFieldOfViewDeg()));
+        viewingParametersBean.fieldOfViewDegProperty().addListener(
+                (p, o, n) -> viewingParametersBean.setLimitingMagnitude(limitingMagnitude(n.doubleValue())));
+
         SkyCanvasManager skyCanvasManager = sky(observerLocationBean, viewingParametersBean, dateTimeBean);
 
         Canvas skyCanvas = skyCanvasManager.canvas();
@@ -113,6 +129,11 @@ public class Main extends Application {
 
     }
 
+    private static double limitingMagnitude(double fieldOfViewDeg) {
+        double magnitude = REFERENCE_LIMITING_MAGNITUDE + 4 * Math.log10(REFERENCE_FIELD_OF_VIEW_DEG / fieldOfViewDeg);
+        return Math.floor(2 * magnitude) / 2;
+    }
+
     private HBox controlBar(ObserverLocationBean observerLocationBean, DateTimeBean dateTimeBean,
                             TimeAnimator timeAnimator, ViewingParametersBean viewingParametersBean, SkyCanvasManager canvasManager, StackPane stackPane) {
         HBox parentHBox = new HBox();
@@ -371,21 +392,78 @@ public class Main extends Application {
     private SkyCanvasManager sky(ObserverLocationBean observerLocationBean, ViewingParametersBean viewingParametersBean,
                                  DateTimeBean dateTimeBean) throws IOException {
 
+        return new SkyCanvasManager(
+                loadCatalogue(),
+                dateTimeBean,
+                observerLocationBean,
+                viewingParametersBean);
+    }
+
+    /**
+     * Charge le catalogue binaire (projeté en mémoire) se trouvant au chemin donné par la propriété système
+     * rigel.catalogue, par défaut ~/.rigel/catalogue.bin. S'il n'existe pas, est illisible ou n'a pas été écrit à
+     * partir des fichiers HYG et d'astérismes actuels (ce qu'indique l'empreinte de ces derniers), le catalogue
+     * est lu depuis les fichiers HYG et d'astérismes, puis écrit à ce chemin pour les lancements suivants.
+     */
+    private StarCatalogue loadCatalogue() throws IOException {
+        Path cataloguePath = Path.of(System.getProperty(CATALOGUE_PROPERTY,
+                Path.of(System.getProperty("user.home"), ".rigel", "catalogue.bin").toString()));
+
+        int sourceFingerprint;
         try (InputStream starStream = resourceStream("/hygdata_v3.csv");
              InputStream asterismStream = resourceStream("/asterisms.txt")) {
+            sourceFingerprint = BinaryCatalogueLoader.sourceFingerprint(starStream, asterismStream);
+        }
 
-            StarCatalogue catalogue = new StarCatalogue.Builder()
-                    .loadFrom(starStream, HygDatabaseLoader.INSTANCE)
-                    .loadFrom(asterismStream, AsterismLoader.INSTANCE)
-                    .build();
+        if (Files.isRegularFile(cataloguePath)) {
+            try {
+                if (BinaryCatalogueLoader.storedSourceFingerprint(cataloguePath) == sourceFingerprint) {
+                    return new StarCatalogue.Builder()
+                            .loadFrom(cataloguePath, BinaryCatalogueLoader.INSTANCE)
+                            .build();
+                }
+                System.err.println("Catalogue binaire " + cataloguePath + " périmé, il est recréé");
+            } catch (IOException e) {
+                System.err.println("Catalogue binaire " + cataloguePath + " illisible, il est recréé : " + e.getMessage());
+            }
+        }
 
+        StarCatalogue catalogue;
+        try (InputStream starStream = resourceStream("/hygdata_v3.csv");
+             InputStream asterismStream = resourceStream("/asterisms.txt")) {
 
-            return new SkyCanvasManager(
-                    catalogue,
-                    dateTimeBean,
-                    observerLocationBean,
-                    viewingParametersBean);
+            StarCatalogue.Builder builder = new StarCatalogue.Builder()
+                    .loadFrom(starStream, HygDatabaseLoader.INSTANCE)
+                    .loadFrom(asterismStream, AsterismLoader.INSTANCE);
+            if (!builder.unresolvedHipparcosIds().isEmpty()) {
+                System.err.println(builder.unresolvedHipparcosIds().size()
+                        + " étoile(s) d'astérismes absente(s) du catalogue, numéros Hipparcos : "
+                        + builder.unresolvedHipparcosIds());
+            }
+            catalogue = builder.build();
+        }
 
+        try {
+            writeCatalogue(catalogue, sourceFingerprint, cataloguePath);
+        } catch (IOException e) {
+            System.err.println("Impossible d'écrire le catalogue binaire " + cataloguePath + " : " + e.getMessage());
+        }
+        return catalogue;
+    }
+
+    // Le fichier est écrit à côté de sa destination puis renommé, afin qu'un fichier incomplet ne soit jamais lu
+    private static void writeCatalogue(StarCatalogue catalogue, int sourceFingerprint, Path cataloguePath)
+            throws IOException {
+        Path directory = cataloguePath.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, "catalogue", ".tmp");
+        try {
+            try (OutputStream outputStream = Files.newOutputStream(temporary)) {
+                BinaryCatalogueLoader.write(catalogue, sourceFingerprint, outputStream);
+            }
+            Files.move(temporary, cataloguePath, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
         }
     }
 
@@ -2,13 +2,20 @@ package ch.epfl.rigel.gui;
 
 import ch.epfl.rigel.astronomy.CelestialObject;
 import ch.epfl.rigel.astronomy.ObservedSky;
+import ch.epfl.rigel.astronomy.SkyEphemeris;
 import ch.epfl.rigel.astronomy.StarCatalogue;
 import ch.epfl.rigel.coordinates.CartesianCoordinates;
+import ch.epfl.rigel.coordinates.GeographicCoordinates;
 import ch.epfl.rigel.coordinates.HorizontalCoordinates;
 import ch.epfl.rigel.coordinates.StereographicProjection;
+import ch.epfl.rigel.coordinates.ViewingFrustum;
+import ch.epfl.rigel.instrumentation.PipelineMetrics;
+import ch.epfl.rigel.instrumentation.PipelineStage;
 import ch.epfl.rigel.math.Angle;
 import ch.epfl.rigel.math.ClosedInterval;
 import ch.epfl.rigel.math.RightOpenInterval;
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
@@ -21,7 +28,14 @@ import javafx.scene.transform.Transform;
 
 import javafx.geometry.Point2D;
 
+import java.time.ZonedDateTime;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 /**
  * Représente le gestionnaire du canvas sur lequel le ciel est dessiné
@@ -36,9 +50,15 @@ public class SkyCanvasManager {
     private final static RightOpenInterval AZ_INTERVAL = RightOpenInterval.of(0, 360);
     private final static ClosedInterval ALT_INTERVAL = ClosedInterval.of(5, 90);
 
+    // Élargissement du champ de vue pour lequel le ciel est calculé, et rapport au-delà duquel il est réduit
+    private final static double FRUSTUM_PADDING = 1.25, MAX_FRUSTUM_SHRINK = 2, MAX_FRUSTUM_FIELD_OF_VIEW = 359;
+
     private ObservableObjectValue<StereographicProjection> projection;
     private ObservableObjectValue<Transform> planeToCanvas;
-    private ObservableObjectValue<ObservedSky> observedSky;
+    private final ObjectProperty<ViewingFrustum> viewingFrustum = new SimpleObjectProperty<>();
+    private final ObjectProperty<ObservedSky> observedSky = new SimpleObjectProperty<>();
+    // Projection avec laquelle le ciel affiché a été calculé
+    private StereographicProjection skyProjection;
     private ObservableObjectValue<HorizontalCoordinates> mouseHorizontalPosition;
 
     /**
@@ -55,6 +75,24 @@ public class SkyCanvasManager {
 
     private final Canvas canvas;
     private final SkyCanvasPainter skyCanvasPainter;
+    private final SkyFrameScheduler frameScheduler;
+    private boolean metricsOverlay;
+
+    // Calcul des ciels observés en arrière-plan : seul le ciel demandé le plus récemment est conservé
+    private final ExecutorService skyExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "rigel-observed-sky");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicReference<SkySnapshot> latestSnapshot = new AtomicReference<>();
+    private Future<?> pendingSky;
+    private long requestedGeneration;
+    private boolean skyRequestScheduled;
+
+    private final StarCatalogue starCatalogue;
+    private final DateTimeBean dateTimeBean;
+    private final ObserverLocationBean observerLocationBean;
+    private final ViewingParametersBean viewingParametersBean;
 
     /**
      * Construit le gestionnaire
@@ -68,9 +106,22 @@ public class SkyCanvasManager {
     public SkyCanvasManager(StarCatalogue starCatalogue, DateTimeBean dateTimeBean,
                             ObserverLocationBean observerLocationBean, ViewingParametersBean viewingParametersBean) {
 
+        this.starCatalogue = starCatalogue;
+        this.dateTimeBean = dateTimeBean;
+        this.observerLocationBean = observerLocationBean;
+        this.viewingParametersBean = viewingParametersBean;
+
         canvas = new Canvas();
         skyCanvasPainter = new SkyCanvasPainter(canvas);
 
+        // Le ciel n'est recalculé et redessiné qu'une fois par impulsion, quel que soit le nombre de changements
+        frameScheduler = new SkyFrameScheduler(this::redraw);
+        frameScheduler.start();
+
+        // Les durées des étapes sont consultables par JMX, et affichables sur le canvas avec la touche F3
+        // (la touche I est réservée au panneau d'informations de la fenêtre principale)
+        PipelineMetrics.registerMBeans();
+
         /**
          * création des liens, ajout des dépendances et des listener.
          */
@@ -79,23 +130,28 @@ public class SkyCanvasManager {
                 () -> new StereographicProjection(viewingParametersBean.getCenter()), viewingParametersBean.centerProperty()
         );
 
-        observedSky = Bindings.createObjectBinding(
-                () -> new ObservedSky(dateTimeBean.getZonedDateTime(), observerLocationBean.getCoordinates(),
-                        projection.getValue(), starCatalogue),
-                dateTimeBean.idObjectProperty(),
-                dateTimeBean.timeObjectProperty(),
-                dateTimeBean.dateObjectProperty(),
-                observerLocationBean.coordinatesProperty(),
-                projection
-        );
-        observedSky.addListener(l -> {
-            skyCanvasPainter.clear();
-            skyCanvasPainter.drawStars(observedSky.get(),  planeToCanvas.get());
-            skyCanvasPainter.drawPlanets(observedSky.get(),  planeToCanvas.get());
-            skyCanvasPainter.drawSun(observedSky.get(),  planeToCanvas.get());
-            skyCanvasPainter.drawMoon(observedSky.get(), projection.get(), planeToCanvas.get());
-            skyCanvasPainter.drawHorizon(projection.get(), planeToCanvas.get());
-        });
+        // Le ciel est calculé pour une portion du plan un peu plus grande que celle qui est visible : un zoom
+        // ou un redimensionnement qui reste dans cette portion ne change que la transformation vers le canvas
+        updateViewingFrustum();
+        InvalidationListener viewListener = o -> updateViewingFrustum();
+        canvas.widthProperty().addListener(viewListener);
+        canvas.heightProperty().addListener(viewListener);
+        viewingParametersBean.fieldOfViewDegProperty().addListener(viewListener);
+
+        // Le premier ciel est calculé immédiatement, les suivants en arrière-plan à chaque changement
+        latestSnapshot.set(skyComputation().get());
+        applyLatestSky();
+
+        InvalidationListener skyInputListener = o -> scheduleSkyRequest();
+        dateTimeBean.idObjectProperty().addListener(skyInputListener);
+        dateTimeBean.timeObjectProperty().addListener(skyInputListener);
+        dateTimeBean.dateObjectProperty().addListener(skyInputListener);
+        observerLocationBean.coordinatesProperty().addListener(skyInputListener);
+        projection.addListener(skyInputListener);
+        viewingFrustum.addListener(skyInputListener);
+        viewingParametersBean.limitingMagnitudeProperty().addListener(skyInputListener);
+
+        observedSky.addListener(l -> frameScheduler.invalidate());
 
         planeToCanvas = Bindings.createObjectBinding(
                 () -> {
@@ -109,14 +165,7 @@ public class SkyCanvasManager {
                 projection,
                 viewingParametersBean.fieldOfViewDegProperty()
         );
-        planeToCanvas.addListener((p) -> {
-            skyCanvasPainter.clear();
-            skyCanvasPainter.drawStars(observedSky.get(),  planeToCanvas.get());
-            skyCanvasPainter.drawPlanets(observedSky.get(), planeToCanvas.get());
-            skyCanvasPainter.drawSun(observedSky.get(),  planeToCanvas.get());
-            skyCanvasPainter.drawMoon(observedSky.get(), projection.get(), planeToCanvas.get());
-            skyCanvasPainter.drawHorizon( projection.get(), planeToCanvas.get());
-        });
+        planeToCanvas.addListener(p -> frameScheduler.invalidate());
 
         /**
          * Intéraction clavier
@@ -152,6 +201,17 @@ public class SkyCanvasManager {
                     viewingParametersBean.setCenter(updatedCoordinates);
                     k.consume();
                     break;
+                case R:
+                    // Bascule entre le dessin des étoiles une à une et leur dessin dans un calque de pixels
+                    skyCanvasPainter.setRasterizedStars(!skyCanvasPainter.isRasterizedStars());
+                    frameScheduler.invalidate();
+                    k.consume();
+                    break;
+                case F3:
+                    metricsOverlay = !metricsOverlay;
+                    frameScheduler.invalidate();
+                    k.consume();
+                    break;
             }
 
         });
@@ -234,6 +294,136 @@ public class SkyCanvasManager {
 
     }
 
+    private void updateViewingFrustum() {
+        double width = canvas.getWidth(), height = canvas.getHeight();
+        if (width <= 0 || height <= 0) {
+            // Tant que le canvas n'a pas de taille, toutes les étoiles sont projetées
+            viewingFrustum.set(null);
+            return;
+        }
+
+        double fieldOfViewDeg = viewingParametersBean.getFieldOfViewDeg();
+        ViewingFrustum visible = new ViewingFrustum(fieldOfViewDeg, width / height);
+        ViewingFrustum current = viewingFrustum.get();
+        // Après un fort zoom avant, la portion calculée est réduite afin que l'élimination des étoiles reste efficace
+        if (current == null || !current.covers(visible) || current.fieldOfViewDeg() > MAX_FRUSTUM_SHRINK * fieldOfViewDeg) {
+            viewingFrustum.set(new ViewingFrustum(Math.min(FRUSTUM_PADDING * fieldOfViewDeg, MAX_FRUSTUM_FIELD_OF_VIEW),
+                    width / height));
+        }
+    }
+
+    // Les changements simultanés de plusieurs paramètres (date, heure et fuseau, par exemple) ne donnent lieu
+    // qu'à une seule demande
+    private void scheduleSkyRequest() {
+        if (!skyRequestScheduled) {
+            skyRequestScheduled = true;
+            Platform.runLater(() -> {
+                skyRequestScheduled = false;
+                requestSky();
+            });
+        }
+    }
+
+    // Annule le calcul précédent s'il n'a pas encore commencé, devenu inutile, et lance celui du ciel demandé.
+    // Un calcul déjà commencé va à son terme et son ciel est publié : sinon, lorsque les demandes arrivent
+    // plus vite qu'un ciel n'est calculé (pendant l'animation du temps, par exemple), aucun ne le serait jamais
+    private void requestSky() {
+        Supplier<SkySnapshot> computation = skyComputation();
+        if (pendingSky != null) {
+            pendingSky.cancel(false);
+        }
+        pendingSky = skyExecutor.submit(() -> {
+            try {
+                SkySnapshot snapshot = computation.get();
+                // Un ciel plus ancien que celui déjà publié n'est jamais publié
+                latestSnapshot.accumulateAndGet(snapshot, (previous, next) -> next.generation > previous.generation ? next : previous);
+                Platform.runLater(this::applyLatestSky);
+            } catch (RuntimeException e) {
+                // Le résultat de la tâche n'est jamais lu : l'erreur serait perdue si elle n'était pas signalée ici
+                System.err.println("Échec du calcul du ciel observé : " + e);
+                e.printStackTrace();
+            }
+        });
+    }
+
+    // Lit les paramètres du ciel depuis le fil JavaFX, et retourne le calcul du ciel correspondant.
+    // Les éphémérides du dernier ciel calculé sont réutilisées si l'instant et la position n'ont pas changé :
+    // seule la projection est alors recalculée (lors d'un déplacement de la vue, par exemple)
+    private Supplier<SkySnapshot> skyComputation() {
+        ZonedDateTime zonedDateTime = dateTimeBean.getZonedDateTime();
+        GeographicCoordinates coordinates = observerLocationBean.getCoordinates();
+        StereographicProjection skyProjection = projection.get();
+        ViewingFrustum frustum = viewingFrustum.get();
+        double limitingMagnitude = viewingParametersBean.getLimitingMagnitude();
+        long generation = ++requestedGeneration;
+
+        SkySnapshot latest = latestSnapshot.get();
+        SkyEphemeris reusableEphemeris = latest != null && latest.sky.getEphemeris().isFor(zonedDateTime, coordinates)
+                ? latest.sky.getEphemeris()
+                : null;
+
+        return () -> {
+            SkyEphemeris ephemeris = reusableEphemeris != null
+                    ? reusableEphemeris
+                    : new SkyEphemeris(zonedDateTime, coordinates);
+            return new SkySnapshot(generation, skyProjection, new ObservedSky(ephemeris, skyProjection,
+                    starCatalogue, frustum, limitingMagnitude, ObservedSky.DEFAULT_PARALLEL_THRESHOLD));
+        };
+    }
+
+    // Affiche le ciel le plus récent ; appelée depuis le fil JavaFX
+    private void applyLatestSky() {
+        SkySnapshot snapshot = latestSnapshot.get();
+        if (snapshot.sky != observedSky.get()) {
+            skyProjection = snapshot.projection;
+            observedSky.set(snapshot.sky);
+        }
+    }
+
+    private void redraw() {
+        long start = System.nanoTime();
+        ObservedSky sky = observedSky.get();
+        Transform transform = planeToCanvas.get();
+        skyCanvasPainter.clear();
+        skyCanvasPainter.drawStars(sky, transform);
+        skyCanvasPainter.drawPlanets(sky, transform);
+        skyCanvasPainter.drawSun(sky, transform);
+        skyCanvasPainter.drawMoon(sky, skyProjection, transform);
+        skyCanvasPainter.drawHorizon(skyProjection, transform);
+        PipelineMetrics.record(PipelineStage.FRAME, start);
+
+        // L'encadré n'est mis à jour que lorsqu'une image est dessinée
+        if (metricsOverlay) {
+            List<String> lines = PipelineMetrics.summary();
+            lines.add(frameScheduler.summary());
+            skyCanvasPainter.drawOverlay(lines);
+        }
+    }
+
+    /**
+     * Ciel observé calculé, accompagné de la projection utilisée et du numéro de sa demande
+     */
+    private static final class SkySnapshot {
+
+        private final long generation;
+        private final StereographicProjection projection;
+        private final ObservedSky sky;
+
+        private SkySnapshot(long generation, StereographicProjection projection, ObservedSky sky) {
+            this.generation = generation;
+            this.projection = projection;
+            this.sky = sky;
+        }
+    }
+
+    /**
+     *
+     * @return l'ordonnanceur des images, qui tient le compte des images dessinées, sautées et regroupées
+     */
+    public SkyFrameScheduler frameScheduler() {
+        return frameScheduler;
+    }
+
     /**
      *
      * @return la propriété de l'objet le plus proche du curseur
@@ -253,7 +443,7 @@ public class SkyCanvasManager {
 
     /**
      *
-     * @return le ciel observé
+     * @return le ciel observé le plus récent ayant été affiché
      */
 
     public ObservedSky getSky (){
@@ -4,6 +4,8 @@ import ch.epfl.rigel.astronomy.*;
 import ch.epfl.rigel.coordinates.CartesianCoordinates;
 import ch.epfl.rigel.coordinates.HorizontalCoordinates;
 import ch.epfl.rigel.coordinates.StereographicProjection;
+import ch.epfl.rigel.instrumentation.PipelineMetrics;
+import ch.epfl.rigel.instrumentation.PipelineStage;
 import ch.epfl.rigel.math.Angle;
 import ch.epfl.rigel.math.ClosedInterval;
 import javafx.geometry.Point2D;
@@ -11,12 +13,16 @@ import javafx.geometry.VPos;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.image.Image;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.Paint;
 import javafx.scene.shape.Circle;
+import javafx.scene.text.Font;
 import javafx.scene.text.TextAlignment;
 import javafx.scene.transform.Transform;
 
+import java.util.List;
+
 /**
  * Classe nous permettant de dessiner le ciel sur le canvas
  *
@@ -29,8 +35,32 @@ public class SkyCanvasPainter {
     private Canvas canvas;
     private GraphicsContext ctx;
 
+    private final StarLayerRenderer starLayer = new StarLayerRenderer();
+    private boolean rasterizedStars;
+    private StarStyles starStyles;
+
     private final static ClosedInterval CLOSED_INTERVAL = ClosedInterval.of(-2, 5);
 
+    private final static double SUN_DIAMETER = 2 * Math.tan(Angle.ofDeg(0.5) / 4);
+    private final static Color SUN_HALO_COLOR = Color.YELLOW.deriveColor(0, 0, 0, 0.25);
+
+    private final static double OVERLAY_PADDING = 6, OVERLAY_LINE_HEIGHT = 15;
+    private final static Font OVERLAY_FONT = Font.font("Monospaced", 12);
+    private final static Color OVERLAY_BACKGROUND = Color.BLACK.deriveColor(0, 1, 1, 0.7);
+
+    private final static int OCTANT_STEP_DEG = 45;
+    private final static String[] OCTANT_NAMES = octantNames();
+
+    // Horizon et positions des points cardinaux, dans le repère du canvas, pour la projection et la transformation données
+    private StereographicProjection horizonProjection;
+    private Transform horizonTransform;
+    private double horizonX, horizonY, horizonDiameter;
+    private final double[] labelPositions = new double[2 * OCTANT_NAMES.length];
+
+    // Coefficients de la transformation du plan vers le canvas, lus une fois par dessin et appliqués directement
+    // aux coordonnées, plutôt que par Transform.transform, qui alloue un Point2D par point
+    private double mxx, mxy, tx, myx, myy, ty;
+
     /**
      * Construit un peintre, devant dessiner sur le canvas fourni
      *
@@ -55,7 +85,7 @@ public class SkyCanvasPainter {
     }
 
     /**
-     * Dessine les étoiles et les astérismes sur le canvas, selon le ciel observé et la transformation donnée
+     * Dessine les étoiles visibles et les astérismes sur le canvas, selon le ciel observé et la transformation donnée
      *
      * @param observedSky   le ciel observé
      * @param planeToCanvas la transformation permettant de passser du repère du plan dans celui du canvas
@@ -64,53 +94,221 @@ public class SkyCanvasPainter {
     public void drawStars(ObservedSky observedSky, Transform planeToCanvas) {
 
 
+        StarCatalogue catalogue = observedSky.getStarCatalogue();
+        double[] starsPositions = observedSky.getStarsProjectedPositions();
+        useTransform(planeToCanvas);
+        long startNanos = System.nanoTime();
+
+        // Les segments de tous les astérismes qui traversent le canvas forment un seul chemin, dessiné en une fois
+        double width = canvas.getWidth(), height = canvas.getHeight();
         ctx.setLineWidth(1);
         ctx.setStroke(Color.BLUE);
-        for (Asterism asterism : observedSky.getAsterism()) {
-            ctx.beginPath();
+        ctx.beginPath();
+        for (int asterism = 0; asterism < catalogue.asterismCount(); asterism++) {
+            int start = catalogue.asterismStart(asterism), end = catalogue.asterismEnd(asterism);
+
+            // La position de l'étoile précédente est conservée d'un segment à l'autre
+            int initIndex = catalogue.asterismStarIndex(start);
+            double previousX = canvasX(starsPositions[2 * initIndex], starsPositions[2 * initIndex + 1]);
+            double previousY = canvasY(starsPositions[2 * initIndex], starsPositions[2 * initIndex + 1]);
+            // Vrai si le chemin se termine à l'étoile précédente
+            boolean connected = false;
+
+            for (int i = start + 1; i < end; ++i) {
+                int index = catalogue.asterismStarIndex(i);
+                double x = canvasX(starsPositions[2 * index], starsPositions[2 * index + 1]);
+                double y = canvasY(starsPositions[2 * index], starsPositions[2 * index + 1]);
+
+                if (segmentCrossesRectangle(previousX, previousY, x, y, width, height)) {
+                    if (!connected) {
+                        ctx.moveTo(previousX, previousY);
+                    }
+                    ctx.lineTo(x, y);
+                    connected = true;
+                } else {
+                    connected = false;
+                }
+
+                previousX = x;
+                previousY = y;
+            }
+        }
+        ctx.stroke();
+        PipelineMetrics.record(PipelineStage.ASTERISM_DRAW, startNanos);
+
+        startNanos = System.nanoTime();
+        if (rasterizedStars) {
+            drawRasterizedStars(observedSky);
+        } else {
+            drawStarOvals(observedSky);
+        }
+        PipelineMetrics.record(PipelineStage.STAR_DRAW, startNanos);
+    }
 
-            double initX = observedSky.getStarsProjectedPositions()[observedSky.getStarsIndex(asterism).get(0)][0];
-            double initY = observedSky.getStarsProjectedPositions()[observedSky.getStarsIndex(asterism).get(0)][1];
-            Point2D correctedInitPosition = planeToCanvas.transform(initX, initY);
-            ctx.moveTo(correctedInitPosition.getX(), correctedInitPosition.getY());
+    // Dessine les étoiles une à une sur le canvas
+    private void drawStarOvals(ObservedSky observedSky) {
+        StarStyles styles = starStyles(observedSky.getStarCatalogue());
+        double[] starsPositions = observedSky.getStarsProjectedPositions();
 
-            for (int i = 1; i < observedSky.getStarsIndex(asterism).size(); ++i) {
-                double x = observedSky.getStarsProjectedPositions()[observedSky.getStarsIndex(asterism).get(i)][0];
-                double y = observedSky.getStarsProjectedPositions()[observedSky.getStarsIndex(asterism).get(i)][1];
-                Point2D correctedPosition = planeToCanvas.transform(x, y);
+        Color fill = null;
+        for (int starNumber : observedSky.getVisibleStarIndices()) {
 
-                double previousX = observedSky.getStarsProjectedPositions()[observedSky.getStarsIndex(asterism).get(i - 1)][0];
-                double previousY = observedSky.getStarsProjectedPositions()[observedSky.getStarsIndex(asterism).get(i - 1)][1];
-                Point2D previousCorrectedPosition = planeToCanvas.transform(previousX, previousY);
+            // Les étoiles consécutives de même couleur ne changent pas la couleur de remplissage
+            if (styles.colors[starNumber] != fill) {
+                fill = styles.colors[starNumber];
+                ctx.setFill(fill);
+            }
 
+            double x = starsPositions[2 * starNumber], y = starsPositions[2 * starNumber + 1];
+            double correctedStarDiameter = mxx * styles.diameters[starNumber];
 
-                if (canvas.getBoundsInLocal().contains(correctedPosition) || canvas.getBoundsInLocal().contains(previousCorrectedPosition))
-                    ctx.lineTo(correctedPosition.getX(), correctedPosition.getY());
+            ctx.fillOval(canvasX(x, y), canvasY(x, y), correctedStarDiameter, correctedStarDiameter);
+        }
+    }
 
-            }
-            ctx.stroke();
+    // Dessine les étoiles dans le calque de pixels, puis copie celui-ci sur le canvas en une seule commande
+    private void drawRasterizedStars(ObservedSky observedSky) {
+        StarStyles styles = starStyles(observedSky.getStarCatalogue());
+        double[] starsPositions = observedSky.getStarsProjectedPositions();
+
+        starLayer.clear((int) canvas.getWidth(), (int) canvas.getHeight());
+        for (int starNumber : observedSky.getVisibleStarIndices()) {
+            double x = starsPositions[2 * starNumber], y = starsPositions[2 * starNumber + 1];
+            starLayer.fillDisc(canvasX(x, y), canvasY(x, y), mxx * styles.diameters[starNumber], styles.argb[starNumber]);
         }
+        WritableImage image = starLayer.image();
+        if (image != null) {
+            ctx.drawImage(image, 0, 0);
+        }
+    }
 
+    /**
+     * Test de Liang-Barsky : le segment allant de (x0, y0) à (x1, y1) est restreint successivement à chacun
+     * des demi-plans délimitant le rectangle [0, width] x [0, height] ; il le traverse si et seulement si
+     * l'intervalle [t0, t1] de ses paramètres restant n'est pas vide
+     */
+    private static boolean segmentCrossesRectangle(double x0, double y0, double x1, double y1, double width, double height) {
+        // Cas le plus courant : une extrémité du segment se trouve dans le rectangle
+        if ((x0 >= 0 && x0 <= width && y0 >= 0 && y0 <= height) || (x1 >= 0 && x1 <= width && y1 >= 0 && y1 <= height)) {
+            return true;
+        }
 
-        int starNumber = 0;
+        double dx = x1 - x0, dy = y1 - y0;
+        double t0 = 0, t1 = 1;
+        for (int edge = 0; edge < 4; edge++) {
+            // Le segment se trouve du côté intérieur du bord lorsque p t <= q
+            double p, q;
+            switch (edge) {
+                case 0:
+                    p = -dx;
+                    q = x0;
+                    break;
+                case 1:
+                    p = dx;
+                    q = width - x0;
+                    break;
+                case 2:
+                    p = -dy;
+                    q = y0;
+                    break;
+                default:
+                    p = dy;
+                    q = height - y0;
+                    break;
+            }
 
-        for (Star star : observedSky.getStarList()) {
+            if (p == 0) {
+                if (q < 0) {
+                    return false;
+                }
+            } else {
+                double t = q / p;
+                if (p < 0) {
+                    t0 = Math.max(t0, t);
+                } else {
+                    t1 = Math.min(t1, t);
+                }
+                if (t0 > t1) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
 
-            ctx.setFill(BlackBodyColor.colorForTemperature(star.colorTemperature()));
+    private void useTransform(Transform planeToCanvas) {
+        mxx = planeToCanvas.getMxx();
+        mxy = planeToCanvas.getMxy();
+        tx = planeToCanvas.getTx();
+        myx = planeToCanvas.getMyx();
+        myy = planeToCanvas.getMyy();
+        ty = planeToCanvas.getTy();
+    }
 
-            Point2D centerPosition = planeToCanvas.transform(observedSky.getStarsProjectedPositions()[starNumber][0],
-                    observedSky.getStarsProjectedPositions()[starNumber][1]);
+    // Abscisse et ordonnée, dans le repère du canvas, du point (x, y) du plan
+    private double canvasX(double x, double y) {
+        return mxx * x + mxy * y + tx;
+    }
 
-            double starDiameter = computeDiameterWithMagnitude(star);
-            Point2D deltaTransformDiameter = planeToCanvas.deltaTransform(starDiameter, 0);
-            double correctedStarDiameter = deltaTransformDiameter.getX();
+    private double canvasY(double x, double y) {
+        return myx * x + myy * y + ty;
+    }
 
-            ctx.fillOval(centerPosition.getX(), centerPosition.getY(), correctedStarDiameter, correctedStarDiameter);
+    // Les couleurs et diamètres des étoiles ne dépendent que du catalogue : ils sont calculés une seule fois
+    private StarStyles starStyles(StarCatalogue catalogue) {
+        if (starStyles == null || starStyles.catalogue != catalogue) {
+            starStyles = new StarStyles(catalogue);
+        }
+        return starStyles;
+    }
 
-            starNumber += 1;
+    /**
+     * Couleurs (en tant que Color et au format ARGB) et diamètres, dans le plan, des étoiles d'un catalogue
+     */
+    private static final class StarStyles {
+
+        private final StarCatalogue catalogue;
+        private final Color[] colors;
+        private final int[] argb;
+        private final double[] diameters;
+
+        private StarStyles(StarCatalogue catalogue) {
+            this.catalogue = catalogue;
+            colors = new Color[catalogue.size()];
+            argb = new int[catalogue.size()];
+            diameters = new double[catalogue.size()];
+            for (int i = 0; i < catalogue.size(); i++) {
+                colors[i] = BlackBodyColor.colorForTemperature(catalogue.colorTemperature(i));
+                argb[i] = argb(colors[i]);
+                diameters[i] = computeDiameterWithMagnitude(catalogue.magnitude(i));
+            }
         }
     }
 
+    private static int argb(Color color) {
+        return 0xFF << 24
+                | (int) Math.round(color.getRed() * 255) << 16
+                | (int) Math.round(color.getGreen() * 255) << 8
+                | (int) Math.round(color.getBlue() * 255);
+    }
+
+    /**
+     * Choisit la manière de dessiner les étoiles : une commande de dessin par étoile (par défaut),
+     * ou bien un calque de pixels, copié sur le canvas en une seule fois, plus rapide lorsque les étoiles sont nombreuses
+     *
+     * @param rasterizedStars vrai pour dessiner les étoiles dans un calque de pixels
+     */
+    public void setRasterizedStars(boolean rasterizedStars) {
+        this.rasterizedStars = rasterizedStars;
+    }
+
+    /**
+     * @return vrai si et seulement si les étoiles sont dessinées dans un calque de pixels
+     */
+    public boolean isRasterizedStars() {
+        return rasterizedStars;
+    }
+
     /**
      * Dessine les planètes, selon le ciel observé et la transformation donnée
      *
@@ -119,27 +317,29 @@ public class SkyCanvasPainter {
      */
     public void drawPlanets(ObservedSky observedSky, Transform planeToCanvas) {
         ctx.setFill(Color.LIGHTGRAY);
+        useTransform(planeToCanvas);
 
+        double[][] planetsPositions = observedSky.getPlanetsProjectedPositions();
         int planetNumber = 0;
 
         for (Planet planet : observedSky.getPlanets()) {
-            double x = observedSky.getPlanetsProjectedPositions()[planetNumber][0];
-            double y = observedSky.getPlanetsProjectedPositions()[planetNumber][1];
-            Point2D centerPosition = planeToCanvas.transform(x, y);
-
-            double planetDiameter = computeDiameterWithMagnitude(planet);
-            Point2D deltaTransformerDiameter = planeToCanvas.deltaTransform(planetDiameter, 0);
-            double correctedPlanetDiameter = deltaTransformerDiameter.getX();
+            double x = planetsPositions[planetNumber][0];
+            double y = planetsPositions[planetNumber][1];
 
+            double correctedPlanetDiameter = mxx * computeDiameterWithMagnitude(planet);
 
-            ctx.fillOval(centerPosition.getX(), centerPosition.getY(), correctedPlanetDiameter, correctedPlanetDiameter);
+            ctx.fillOval(canvasX(x, y), canvasY(x, y), correctedPlanetDiameter, correctedPlanetDiameter);
 
             planetNumber += 1;
         }
     }
 
     private double computeDiameterWithMagnitude(CelestialObject celestialObject) {
-        double clippedMagnitude = CLOSED_INTERVAL.clip(celestialObject.magnitude());
+        return computeDiameterWithMagnitude(celestialObject.magnitude());
+    }
+
+    private static double computeDiameterWithMagnitude(double magnitude) {
+        double clippedMagnitude = CLOSED_INTERVAL.clip(magnitude);
         double sizeFactor = (99 - 17 * clippedMagnitude) / 140;
         return sizeFactor * 2 * Math.tan(Angle.ofDeg(0.5) / 4);
     }
@@ -152,31 +352,23 @@ public class SkyCanvasPainter {
      */
     public void drawSun(ObservedSky observedSky, Transform planeToCanvas) {
 
-        Point2D centerPosition = getSunPosition(observedSky,planeToCanvas);
+        useTransform(planeToCanvas);
+        double x = observedSky.getSunProjectedPosition().x();
+        double y = observedSky.getSunProjectedPosition().y();
+        double centerX = canvasX(x, y), centerY = canvasY(x, y);
 
-        double sunDiameter = 2 * Math.tan(Angle.ofDeg(0.5) / 4);
-        Point2D deltaTransformerDiameter = planeToCanvas.deltaTransform(sunDiameter, 0);
+        double correctedSunDiameter = mxx * SUN_DIAMETER;
 
-        Color color = Color.YELLOW.deriveColor(0, 0, 0, 0.25);
-        ctx.setFill(color);
-        double correctedDiameterBigCircle = deltaTransformerDiameter.getX() * 2.2;
-        ctx.fillOval(centerPosition.getX(), centerPosition.getY(), correctedDiameterBigCircle, correctedDiameterBigCircle);
+        ctx.setFill(SUN_HALO_COLOR);
+        double correctedDiameterBigCircle = correctedSunDiameter * 2.2;
+        ctx.fillOval(centerX, centerY, correctedDiameterBigCircle, correctedDiameterBigCircle);
 
         ctx.setFill(Color.YELLOW);
-        double correctedDiameterMediumCircle = deltaTransformerDiameter.getX() + 2;
-        ctx.fillOval(centerPosition.getX(), centerPosition.getY(), correctedDiameterMediumCircle, correctedDiameterMediumCircle);
+        double correctedDiameterMediumCircle = correctedSunDiameter + 2;
+        ctx.fillOval(centerX, centerY, correctedDiameterMediumCircle, correctedDiameterMediumCircle);
 
         ctx.setFill(Color.WHITE);
-        double correctedDiameterLittleCircle = deltaTransformerDiameter.getX();
-        ctx.fillOval(centerPosition.getX(), centerPosition.getY(), correctedDiameterLittleCircle, correctedDiameterLittleCircle);
-
-    }
-
-
-    private Point2D getSunPosition (ObservedSky observedSky, Transform planeToCanvas){
-        double x = observedSky.getSunProjectedPosition().x();
-        double y = observedSky.getSunProjectedPosition().y();
-        return planeToCanvas.transform(x, y);
+        ctx.fillOval(centerX, centerY, correctedSunDiameter, correctedSunDiameter);
 
     }
 
@@ -191,16 +383,14 @@ public class SkyCanvasPainter {
      */
     public void drawMoon(ObservedSky observedSky, StereographicProjection stereographicProjection, Transform planeToCanvas) {
         ctx.setFill(Color.WHITE);
+        useTransform(planeToCanvas);
 
         double x = observedSky.getMoonProjectedPosition().x();
         double y = observedSky.getMoonProjectedPosition().y();
-        Point2D centerPosition = planeToCanvas.transform(x, y);
 
-        double moonDiameter = stereographicProjection.applyToAngle(observedSky.getMoon().angularSize());
-        Point2D deltaTransformerDiameter = planeToCanvas.deltaTransform(moonDiameter, 0);
-        double correctedMoonDiameter = deltaTransformerDiameter.getX();
+        double correctedMoonDiameter = mxx * stereographicProjection.applyToAngle(observedSky.getMoon().angularSize());
 
-        ctx.fillOval(centerPosition.getX(), centerPosition.getY(), correctedMoonDiameter, correctedMoonDiameter);
+        ctx.fillOval(canvasX(x, y), canvasY(x, y), correctedMoonDiameter, correctedMoonDiameter);
     }
 
     /**
@@ -210,34 +400,80 @@ public class SkyCanvasPainter {
      * @param planeToCanvas           la transformation permettant de passer du repère du plan dans celui du canvas
      */
     public void drawHorizon(StereographicProjection stereographicProjection, Transform planeToCanvas) {
+        long startNanos = System.nanoTime();
+        if (stereographicProjection != horizonProjection || planeToCanvas != horizonTransform) {
+            computeHorizon(stereographicProjection, planeToCanvas);
+        }
+
         ctx.setStroke(Color.RED);
         ctx.setLineWidth(2);
         ctx.setTextAlign(TextAlignment.CENTER);
         ctx.setTextBaseline(VPos.TOP);
 
+        ctx.strokeOval(horizonX - horizonDiameter / 2, horizonY - horizonDiameter / 2, horizonDiameter, horizonDiameter);
+
+        ctx.setFill(Color.RED);
+        for (int i = 0; i < OCTANT_NAMES.length; i++) {
+            ctx.fillText(OCTANT_NAMES[i], labelPositions[2 * i], labelPositions[2 * i + 1]);
+        }
+        PipelineMetrics.record(PipelineStage.HORIZON, startNanos);
+    }
+
+    /**
+     * Dessine, dans le coin supérieur gauche du canvas, un encadré contenant les lignes de texte données
+     *
+     * @param lines les lignes à afficher
+     */
+    public void drawOverlay(List<String> lines) {
+        // La police et l'alignement du texte des points cardinaux ne doivent pas être modifiés
+        ctx.save();
+        double height = OVERLAY_PADDING * 2 + OVERLAY_LINE_HEIGHT * lines.size();
+        ctx.setFill(OVERLAY_BACKGROUND);
+        ctx.fillRect(0, 0, canvas.getWidth(), height);
+
+        ctx.setFill(Color.WHITE);
+        ctx.setFont(OVERLAY_FONT);
+        ctx.setTextAlign(TextAlignment.LEFT);
+        ctx.setTextBaseline(VPos.TOP);
+        for (int i = 0; i < lines.size(); i++) {
+            ctx.fillText(lines.get(i), OVERLAY_PADDING, OVERLAY_PADDING + OVERLAY_LINE_HEIGHT * i);
+        }
+        ctx.restore();
+    }
+
+    // L'horizon et les positions des points cardinaux ne dépendent que de la projection et de la transformation
+    // (et donc pas de l'instant d'observation) : ils ne sont recalculés que lorsque l'une d'elles change
+    private void computeHorizon(StereographicProjection stereographicProjection, Transform planeToCanvas) {
         HorizontalCoordinates horizontalCoordinates = HorizontalCoordinates.of(0, 0);
 
         double diameter = 2 * stereographicProjection.circleRadiusForParallel(horizontalCoordinates);
         Point2D deltaTransformDiameter = planeToCanvas.deltaTransform(diameter, 0);
-        double correctedDiameter = deltaTransformDiameter.getX();
+        horizonDiameter = deltaTransformDiameter.getX();
 
         CartesianCoordinates circleCenterForParallel = stereographicProjection.circleCenterForParallel(horizontalCoordinates);
-        double x = circleCenterForParallel.x();
-        double y = circleCenterForParallel.y();
-        Point2D centerPosition = planeToCanvas.transform(x, y);
-        ctx.strokeOval(centerPosition.getX() - correctedDiameter / 2, centerPosition.getY() - correctedDiameter / 2,
-                correctedDiameter, correctedDiameter);
-
-        for (int i = 0; i < 360; i += 45) {
-            ctx.setFill(Color.RED);
-            String name = computeName(i);
-            Point2D textPosition = computePosition(i, stereographicProjection, planeToCanvas);
-            ctx.fillText(name, textPosition.getX(), textPosition.getY());
+        Point2D centerPosition = planeToCanvas.transform(circleCenterForParallel.x(), circleCenterForParallel.y());
+        horizonX = centerPosition.getX();
+        horizonY = centerPosition.getY();
+
+        for (int i = 0; i < OCTANT_NAMES.length; i++) {
+            Point2D textPosition = computePosition(OCTANT_STEP_DEG * i, stereographicProjection, planeToCanvas);
+            labelPositions[2 * i] = textPosition.getX();
+            labelPositions[2 * i + 1] = textPosition.getY();
+        }
+
+        horizonProjection = stereographicProjection;
+        horizonTransform = planeToCanvas;
+    }
 
+    private static String[] octantNames() {
+        String[] names = new String[360 / OCTANT_STEP_DEG];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = computeName(OCTANT_STEP_DEG * i);
         }
+        return names;
     }
 
-    private String computeName(double azDeg) {
+    private static String computeName(double azDeg) {
         HorizontalCoordinates horizontalCoordinates = HorizontalCoordinates.ofDeg(azDeg, -0.5);
         return horizontalCoordinates.azOctantName("N", "E", "S", "O");
     }
@@ -0,0 +1,87 @@
+package ch.epfl.rigel.gui;
+
+import javafx.animation.AnimationTimer;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Classe représentant un ordonnanceur d'images : les changements du ciel ou de la vue ne font que
+ * marquer l'image comme périmée, et celle-ci est redessinée au plus une fois par impulsion d'affichage.
+ *
+ * Toutes les méthodes doivent être appelées depuis le fil JavaFX.
+ *
+ * @author Cyril Golaz (301379)
+ * @author Paul McIntyre (302264)
+ */
+
+public final class SkyFrameScheduler extends AnimationTimer {
+
+    private final Runnable redraw;
+
+    private boolean dirty = true;
+    private long drawnFrames, skippedFrames, coalescedInvalidations;
+
+    /**
+     * Construit l'ordonnanceur, la première image étant considérée comme périmée
+     *
+     * @param redraw l'action redessinant l'image
+     */
+
+    public SkyFrameScheduler(Runnable redraw) {
+        this.redraw = Objects.requireNonNull(redraw);
+    }
+
+    /**
+     * Marque l'image comme périmée ; elle sera redessinée à la prochaine impulsion
+     */
+    public void invalidate() {
+        if (dirty) {
+            coalescedInvalidations += 1;
+        } else {
+            dirty = true;
+        }
+    }
+
+    @Override
+    public void handle(long now) {
+        if (!dirty) {
+            skippedFrames += 1;
+            return;
+        }
+        // L'image est marquée à jour avant d'être dessinée : une invalidation pendant le dessin est prise en compte
+        dirty = false;
+        drawnFrames += 1;
+        redraw.run();
+    }
+
+    /**
+     * @return le nombre d'images dessinées
+     */
+    public long drawnFrames() {
+        return drawnFrames;
+    }
+
+    /**
+     * @return le nombre d'impulsions lors desquelles l'image était à jour, et n'a donc pas été redessinée
+     */
+    public long skippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * @return le nombre d'invalidations survenues alors que l'image était déjà périmée,
+     * regroupées avec la précédente en une seule image
+     */
+    public long coalescedInvalidations() {
+        return coalescedInvalidations;
+    }
+
+    /**
+     * @return une ligne résumant les compteurs de l'ordonnanceur, pour l'encadré des mesures
+     */
+    public String summary() {
+        return String.format(Locale.ROOT, "images : %d dessinées, %d sautées, %d invalidations regroupées",
+                drawnFrames, skippedFrames, coalescedInvalidations);
+    }
+}
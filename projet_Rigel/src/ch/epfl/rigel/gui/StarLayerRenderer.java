@@ -0,0 +1,144 @@
+package ch.epfl.rigel.gui;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.util.Arrays;
+
+/**
+ * Calque des étoiles dessiné directement dans un tampon de pixels ARGB (prémultipliés), puis copié
+ * en une seule fois dans une image, au lieu d'envoyer au canvas une commande de dessin par étoile.
+ *
+ * Chaque disque est obtenu en tamponnant un masque de couverture précalculé pour son diamètre
+ * (arrondi au quart de pixel), teinté de la couleur de l'étoile. Le reste du calque est transparent.
+ *
+ * @author Cyril Golaz (301379)
+ * @author Paul McIntyre (302264)
+ */
+
+final class StarLayerRenderer {
+
+    // Nombre de tampons par pixel de diamètre, et diamètre maximal des tampons conservés
+    private final static int STEPS_PER_PIXEL = 4;
+    private final static int MAX_CACHED_DIAMETER = 64;
+    // Nombre d'échantillons, par axe, utilisés pour calculer la couverture d'un pixel
+    private final static int SUBSAMPLES = 4;
+
+    private final Stamp[] stamps = new Stamp[MAX_CACHED_DIAMETER * STEPS_PER_PIXEL + 1];
+
+    private int width, height;
+    private int[] pixels = new int[0];
+    private WritableImage image;
+
+    /**
+     * Efface le calque, en l'adaptant au besoin à la taille donnée
+     *
+     * @param width  la largeur du calque, en pixels
+     * @param height la hauteur du calque, en pixels
+     */
+    void clear(int width, int height) {
+        if (width != this.width || height != this.height || image == null) {
+            this.width = width;
+            this.height = height;
+            pixels = new int[width * height];
+            image = width > 0 && height > 0 ? new WritableImage(width, height) : null;
+        } else {
+            Arrays.fill(pixels, 0);
+        }
+    }
+
+    /**
+     * Dessine un disque plein dans le calque, avec les mêmes conventions que GraphicsContext.fillOval
+     *
+     * @param x        l'abscisse du coin supérieur gauche du carré englobant le disque
+     * @param y        l'ordonnée du coin supérieur gauche du carré englobant le disque
+     * @param diameter le diamètre du disque, en pixels
+     * @param argb     la couleur opaque du disque, au format ARGB
+     */
+    void fillDisc(double x, double y, double diameter, int argb) {
+        if (!(diameter > 0) || x >= width || y >= height || x + diameter <= 0 || y + diameter <= 0) {
+            return;
+        }
+        Stamp stamp = stamp(diameter);
+        int left = (int) Math.round(x), top = (int) Math.round(y);
+
+        int red = (argb >>> 16) & 0xFF, green = (argb >>> 8) & 0xFF, blue = argb & 0xFF;
+        int fromRow = Math.max(0, -top), toRow = Math.min(stamp.size, height - top);
+        int fromColumn = Math.max(0, -left), toColumn = Math.min(stamp.size, width - left);
+
+        for (int row = fromRow; row < toRow; row++) {
+            int pixel = (top + row) * width + left + fromColumn;
+            int coverage = row * stamp.size + fromColumn;
+            for (int column = fromColumn; column < toColumn; column++, pixel++, coverage++) {
+                int alpha = stamp.coverage[coverage];
+                if (alpha != 0) {
+                    pixels[pixel] = blend(pixels[pixel], alpha, red, green, blue);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return l'image contenant le calque dessiné, ou null si le calque est vide de pixels
+     */
+    WritableImage image() {
+        if (image != null) {
+            image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbPreInstance(), pixels, 0, width);
+        }
+        return image;
+    }
+
+    // Superpose, au pixel prémultiplié donné, la couleur donnée avec l'opacité alpha (0 à 255)
+    private static int blend(int destination, int alpha, int red, int green, int blue) {
+        int inverse = 255 - alpha;
+        int a = alpha + ((destination >>> 24) * inverse + 127) / 255;
+        int r = (red * alpha + ((destination >>> 16) & 0xFF) * inverse + 127) / 255;
+        int g = (green * alpha + ((destination >>> 8) & 0xFF) * inverse + 127) / 255;
+        int b = (blue * alpha + (destination & 0xFF) * inverse + 127) / 255;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    private Stamp stamp(double diameter) {
+        int step = (int) Math.round(diameter * STEPS_PER_PIXEL);
+        if (step >= stamps.length) {
+            return new Stamp((double) step / STEPS_PER_PIXEL);
+        }
+        if (stamps[step] == null) {
+            stamps[step] = new Stamp((double) step / STEPS_PER_PIXEL);
+        }
+        return stamps[step];
+    }
+
+    /**
+     * Masque de couverture (0 à 255) d'un disque de diamètre donné, inscrit dans un carré de size pixels
+     */
+    private static final class Stamp {
+
+        private final int size;
+        private final int[] coverage;
+
+        private Stamp(double diameter) {
+            // Un disque de moins d'un quart de pixel est tout de même visible
+            double radius = Math.max(diameter, 1d / STEPS_PER_PIXEL) / 2;
+            size = Math.max(1, (int) Math.ceil(2 * radius));
+            coverage = new int[size * size];
+
+            double squaredRadius = radius * radius;
+            for (int row = 0; row < size; row++) {
+                for (int column = 0; column < size; column++) {
+                    int inside = 0;
+                    for (int i = 0; i < SUBSAMPLES; i++) {
+                        double dy = row + (i + 0.5) / SUBSAMPLES - radius;
+                        for (int j = 0; j < SUBSAMPLES; j++) {
+                            double dx = column + (j + 0.5) / SUBSAMPLES - radius;
+                            if (dx * dx + dy * dy <= squaredRadius) {
+                                inside += 1;
+                            }
+                        }
+                    }
+                    coverage[row * size + column] = (255 * inside + SUBSAMPLES * SUBSAMPLES / 2) / (SUBSAMPLES * SUBSAMPLES);
+                }
+            }
+        }
+    }
+}
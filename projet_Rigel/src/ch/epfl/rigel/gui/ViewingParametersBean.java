@@ -1,7 +1,9 @@
 package ch.epfl.rigel.gui;
 
 import ch.epfl.rigel.coordinates.HorizontalCoordinates;
+import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleObjectProperty;
 
 /**
@@ -15,6 +17,7 @@ public class ViewingParametersBean {
 
     private final ObjectProperty<Double> fieldOfViewDeg = new SimpleObjectProperty<>();
     private final ObjectProperty<HorizontalCoordinates> center = new SimpleObjectProperty<>();
+    private final DoubleProperty limitingMagnitude = new SimpleDoubleProperty(Double.POSITIVE_INFINITY);
 
     /**
      * Constructeur du bean
@@ -68,4 +71,27 @@ public class ViewingParametersBean {
     public void setCenter(HorizontalCoordinates center) {
         this.center.set(center);
     }
+
+    /**
+     * @return la magnitude limite des étoiles dessinées (Double.POSITIVE_INFINITY si toutes le sont)
+     */
+    public double getLimitingMagnitude() {
+        return limitingMagnitude.get();
+    }
+
+    /**
+     * @return la propriété de la magnitude limite, qui n'est invalidée que si sa valeur change
+     */
+    public DoubleProperty limitingMagnitudeProperty() {
+        return limitingMagnitude;
+    }
+
+    /**
+     * Modifie la magnitude limite des étoiles dessinées
+     *
+     * @param limitingMagnitude la magnitude limite fournie
+     */
+    public void setLimitingMagnitude(double limitingMagnitude) {
+        this.limitingMagnitude.set(limitingMagnitude);
+    }
 }
@@ -0,0 +1,136 @@
+package ch.epfl.rigel.instrumentation;
+
+import ch.epfl.rigel.Preconditions;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogramme des durées, en nanosecondes, d'une étape. Il peut être alimenté et lu simultanément
+ * par plusieurs fils sans verrou.
+ *
+ * Chaque puissance de deux est divisée en SUB_BUCKETS classes de même largeur : un centile est donc
+ * connu à 1 / SUB_BUCKETS près, quelle que soit la durée.
+ *
+ * @author Cyril Golaz (301379)
+ * @author Paul McIntyre (302264)
+ */
+
+public final class LatencyHistogram implements LatencyHistogramMXBean {
+
+    private final static int SUB_BUCKET_BITS = 3, SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private final static int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private final static double NANOS_PER_MILLI = 1e6;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong(), totalNanos = new AtomicLong(), maxNanos = new AtomicLong();
+
+    /**
+     * Enregistre une durée
+     *
+     * @param nanos la durée, en nanosecondes (une durée négative est comptée comme nulle)
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        buckets.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * @param fraction la proportion des durées, entre 0 et 1
+     * @return la borne supérieure de la classe contenant la durée, en nanosecondes, sous laquelle se trouve
+     * cette proportion des durées enregistrées, ou 0 si aucune ne l'a été
+     * @throws IllegalArgumentException si la proportion n'est pas comprise entre 0 et 1
+     */
+    public long percentileNanos(double fraction) {
+        Preconditions.checkArgument(fraction >= 0 && fraction <= 1);
+
+        long total = 0;
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * total)), seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // La durée maximale est plus précise que la borne de la dernière classe
+                return Math.min(upperBound(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / (n * NANOS_PER_MILLI);
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMedianMillis() {
+        return percentileNanos(0.5) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return percentileNanos(0.99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    // Les durées inférieures à SUB_BUCKETS ont chacune leur classe ; au-delà, la classe est déterminée
+    // par la puissance de deux et par les SUB_BUCKET_BITS bits qui suivent le bit de poids fort
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket + 1 < BUCKET_COUNT ? lowerBound(bucket + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "LatencyHistogram: %d mesures, moyenne %.3f ms, max %.3f ms",
+                getCount(), getMeanMillis(), getMaxMillis());
+    }
+}
@@ -0,0 +1,41 @@
+package ch.epfl.rigel.instrumentation;
+
+/**
+ * Interface de gestion (JMX) de l'histogramme des durées d'une étape
+ *
+ * @author Cyril Golaz (301379)
+ * @author Paul McIntyre (302264)
+ */
+
+public interface LatencyHistogramMXBean {
+
+    /**
+     * @return le nombre de durées enregistrées
+     */
+    long getCount();
+
+    /**
+     * @return la durée moyenne, en millisecondes
+     */
+    double getMeanMillis();
+
+    /**
+     * @return la durée maximale, en millisecondes
+     */
+    double getMaxMillis();
+
+    /**
+     * @return la durée médiane, en millisecondes
+     */
+    double getMedianMillis();
+
+    /**
+     * @return le 99e centile des durées, en millisecondes
+     */
+    double getP99Millis();
+
+    /**
+     * Oublie toutes les durées enregistrées
+     */
+    void reset();
+}
@@ -0,0 +1,108 @@
+package ch.epfl.rigel.instrumentation;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Classe utilitaire, regroupe les histogrammes des durées de chacune des étapes du calcul et du dessin du ciel.
+ *
+ * Une durée est mesurée en lisant System.nanoTime() au début de l'étape, puis en la passant à record à la fin :
+ * <pre>
+ *     long start = System.nanoTime();
+ *     ...
+ *     PipelineMetrics.record(PipelineStage.STAR_DRAW, start);
+ * </pre>
+ *
+ * @author Cyril Golaz (301379)
+ * @author Paul McIntyre (302264)
+ */
+
+public final class PipelineMetrics {
+
+    private final static String DOMAIN = "ch.epfl.rigel";
+
+    private final static Map<PipelineStage, LatencyHistogram> HISTOGRAMS = histograms();
+
+    private PipelineMetrics() {
+    }
+
+    /**
+     * Enregistre la durée d'une étape
+     *
+     * @param stage      l'étape
+     * @param startNanos la valeur de System.nanoTime() au début de l'étape
+     */
+    public static void record(PipelineStage stage, long startNanos) {
+        HISTOGRAMS.get(stage).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @param stage l'étape
+     * @return l'histogramme des durées de l'étape
+     */
+    public static LatencyHistogram histogram(PipelineStage stage) {
+        return HISTOGRAMS.get(stage);
+    }
+
+    /**
+     * Enregistre les histogrammes auprès du serveur JMX de la plateforme, sous les noms
+     * ch.epfl.rigel:type=PipelineStage,name=&lt;étape&gt;. Les histogrammes déjà enregistrés sont ignorés.
+     *
+     * @throws IllegalStateException si l'enregistrement échoue
+     */
+    public static void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Map.Entry<PipelineStage, LatencyHistogram> entry : HISTOGRAMS.entrySet()) {
+            try {
+                server.registerMBean(entry.getValue(),
+                        new ObjectName(DOMAIN + ":type=PipelineStage,name=" + entry.getKey().name()));
+            } catch (InstanceAlreadyExistsException e) {
+                // Déjà enregistré par un autre gestionnaire du canvas
+            } catch (JMException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * @return une nouvelle liste (modifiable) contenant une ligne par étape ayant été mesurée : son nom,
+     * le nombre de mesures, la médiane, le 99e centile et le maximum de ses durées
+     */
+    public static List<String> summary() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<PipelineStage, LatencyHistogram> entry : HISTOGRAMS.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (histogram.getCount() > 0) {
+                lines.add(String.format(Locale.ROOT, "%-26s %7d  méd %7.2f ms  p99 %7.2f ms  max %7.2f ms",
+                        entry.getKey().getName(), histogram.getCount(), histogram.getMedianMillis(),
+                        histogram.getP99Millis(), histogram.getMaxMillis()));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Oublie toutes les durées enregistrées
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : HISTOGRAMS.values()) {
+            histogram.reset();
+        }
+    }
+
+    private static Map<PipelineStage, LatencyHistogram> histograms() {
+        Map<PipelineStage, LatencyHistogram> histograms = new EnumMap<>(PipelineStage.class);
+        for (PipelineStage stage : PipelineStage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+        return histograms;
+    }
+}
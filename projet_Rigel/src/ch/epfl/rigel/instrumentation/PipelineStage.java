@@ -0,0 +1,33 @@
+package ch.epfl.rigel.instrumentation;
+
+/**
+ * Étapes mesurées du calcul et du dessin du ciel
+ *
+ * @author Cyril Golaz (301379)
+ * @author Paul McIntyre (302264)
+ */
+
+public enum PipelineStage {
+    EPHEMERIS("éphémérides"),
+    STAR_PROJECTION("projection des étoiles"),
+    CULLING("élimination des étoiles"),
+    STAR_DRAW("dessin des étoiles"),
+    ASTERISM_DRAW("dessin des astérismes"),
+    HORIZON("dessin de l'horizon"),
+    PICKING("recherche sous le curseur"),
+    FRAME("image complète");
+
+    private final String visibleName;
+
+    PipelineStage(String visibleName) {
+        this.visibleName = visibleName;
+    }
+
+    /**
+     * @return le nom de l'étape
+     */
+
+    public String getName() {
+        return visibleName;
+    }
+}